@@ -1,14 +1,12 @@
 package uk.ac.ed.inf.aqmaps;
 
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
-import com.mapbox.geojson.Feature;
-import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Point;
-import com.mapbox.geojson.LineString;
 
 
 /**
@@ -20,72 +18,73 @@ import com.mapbox.geojson.LineString;
 public class AQMap {
 	
 	public ArrayList<Reading> readings;
-	public ArrayList<Point> path_map;
+	public ArrayList<FlightTrace> traces;
 	private HashMap<String, Point> sensor_locs;
 	
 	/**
 	 * @param readings readings taken
-	 * @param path_map path followed by the drone
+	 * @param trace moves of the drone
 	 * @param sensor_locs w3w->mapbox sensors locations
 	 */
-	public AQMap(ArrayList<Reading> readings, ArrayList<Point> path_map, HashMap<String, Point> sensor_locs) {
+	public AQMap(ArrayList<Reading> readings, FlightTrace trace, HashMap<String, Point> sensor_locs) {
+		this(readings, new ArrayList<FlightTrace>(List.of(trace)), sensor_locs);
+	}
+	
+	/**
+	 * @param readings readings taken by all the drones
+	 * @param traces moves of each drone, each written as a path of its own
+	 * @param sensor_locs w3w->mapbox sensors locations
+	 */
+	public AQMap(ArrayList<Reading> readings, ArrayList<FlightTrace> traces, HashMap<String, Point> sensor_locs) {
 		this.readings = new ArrayList<Reading>(readings);
-		this.path_map = path_map;
+		this.traces = new ArrayList<FlightTrace>(traces);
 		this.sensor_locs = new HashMap<String, Point>(sensor_locs);
 	}
 	
 	/**
-	 * Exports the map to a GeoJSON file
+	 * Exports the map to a GeoJSON file, writing one feature at a time
 	 * 
 	 * @param outfile name of the file to save to
 	 */
 	public void export(String outfile) {
-		// create a mapbox feature collection
-		var feature_collection = new ArrayList<Feature>();
-		
-		// add features for sensors with collected reading
-		for (var i = 0; i<readings.size(); i++) {
-			var sensor_point = createPointFeature(readings.get(i));
-			sensor_locs.remove(readings.get(i).location);
-			feature_collection.add(sensor_point);
-		}
-		
-		// add features for sensors without reading
-		for (var key : sensor_locs.keySet()) {
-			var fake_reading = new Reading(key, 100.0, "-2");
-			var fake_sensor_point = createPointFeature(fake_reading);
-			feature_collection.add(fake_sensor_point);
-		}
-		
-		// add feature for the path taken
-		feature_collection.add(createLineStringFeature(createLineString(path_map)));
-				
-		// save as feature collection
-		var map = FeatureCollection.fromFeatures(feature_collection);
-		
-		// save to file
-		try {
-			FileWriter myWriter = new FileWriter(outfile);
-			myWriter.write(map.toJson());
-			myWriter.close();
-			System.out.println("Successfully saved " + outfile);
+		var unread_locs = new HashMap<String, Point>(sensor_locs);
+		try (var writer = GeoJsonWriter.open(new File(outfile))) {
+			// add features for sensors with collected reading
+			for (var i = 0; i<readings.size(); i++) {
+				writePointFeature(writer, readings.get(i));
+				unread_locs.remove(readings.get(i).location);
+			}
+			
+			// add features for sensors without reading
+			for (var key : unread_locs.keySet()) {
+				var fake_reading = new Reading(key, 100.0, "-2");
+				writePointFeature(writer, fake_reading);
+			}
+			
+			// add a feature for the path taken by each drone
+			for (var trace : traces) {
+				writer.beginFeature();
+				trace.writeTo(writer);
+				writer.endFeature();
+			}
 		} catch (IOException e) {
 			System.out.println("An error occurred:");
 			e.printStackTrace();
+			return;
 		}
+		System.out.println("Successfully saved " + outfile);
 	}
 
 	/**
-	 * Creates a point feature with properties (location, rgb-string, marker-color [, marker-symbol])
+	 * Writes a point feature with properties (location, rgb-string, marker-color [, marker-symbol])
 	 * based on the reading value 
 	 * 
+	 * @param writer the writer of the map
 	 * @param reading values of the data
-	 * @return point feature
+	 * @throws IOException if it cannot be written
 	 */
-	private Feature createPointFeature(Reading reading) {
-		// create a feature
+	private void writePointFeature(GeoJsonWriter writer, Reading reading) throws IOException {
 		var point = sensor_locs.get(reading.location);
-		var point_feature = Feature.fromGeometry(point);
 		
 		// choose properties based on data collected
 		var battery_level = reading.battery;
@@ -101,38 +100,16 @@ public class AQMap {
 			cs = ColorSymbol.readingToRgbColor(measurement);
 		}
 		
-		// add additional properties
-		point_feature.addStringProperty("location", reading.location);
-		point_feature.addStringProperty("rgb-string", cs);
-		point_feature.addStringProperty("marker-color", cs);
+		writer.beginFeature();
+		writer.point(point.longitude(), point.latitude());
+		writer.property("location", reading.location);
+		writer.property("rgb-string", cs);
+		writer.property("marker-color", cs);
 		// only add a marker symbol when visited the sensor
 		if (mks != null) {
-			point_feature.addStringProperty("marker-symbol", mks);
+			writer.property("marker-symbol", mks);
 		}
-
-		return point_feature;
+		writer.endFeature();
 	}
-	
-	/**
-	 * Generates a feature from the linestring
-	 * @param line_string to convert to a feature
-	 * @return a feature from the linestring
-	 */
-	private Feature createLineStringFeature(LineString line_string) {
-		var linestring_feature = Feature.fromGeometry(line_string);
-		return linestring_feature;
-	}
-	
-	/**
-	 * Generates a LineString from a list of points
-	 * 
-	 * @param points making up the linestring
-	 * @return LineString from points
-	 */
-	private LineString createLineString(ArrayList<Point> points) {
-		var linestring_points = new ArrayList<Point>(points);
-		var linestring = LineString.fromLngLats(linestring_points);
-		return linestring;
-	}
-	
+
 }
@@ -0,0 +1,174 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Plans paths in the background, each one kept if it is better than the best so far, until it is
+ * cancelled. The first path visits the sensors in straight-line nearest neighbour order, so that
+ * there is a path soon after the start, the second one is the deterministic path of
+ * Path.generatePath(), and the following ones use seeded randomised tour orders. The best path so
+ * far can be taken at any time. Cancelling interrupts the candidate being planned.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class AnytimePlanner {
+
+	private final Path path;
+	private final int sensor_count;
+	private final long seed;
+	private int max_candidates = 256;
+	private IntConsumer listener = moves -> {};
+
+	private volatile ArrayList<PathStep> best = null;
+	private volatile boolean cancelled = false;
+	// what made the background planning fail, if it did before being cancelled
+	private volatile Throwable failure = null;
+	// pairs of milliseconds since the start and number of moves, one for each improvement
+	private final ArrayList<long[]> improvements = new ArrayList<long[]>();
+	private long start_time;
+	private Thread worker;
+
+	/**
+	 * @param path the path to generate candidates from
+	 * @param sensor_count number of sensors the path should visit
+	 * @param seed seed of the randomised candidates
+	 */
+	public AnytimePlanner(Path path, int sensor_count, long seed) {
+		this.path = path;
+		this.sensor_count = sensor_count;
+		this.seed = seed;
+	}
+
+	/**
+	 * @param max_candidates number of randomised candidates after which to stop improving, 256 by default
+	 */
+	public void setMaxCandidates(int max_candidates) {
+		this.max_candidates = max_candidates;
+	}
+
+	/**
+	 * @param listener called on the planning thread with the number of moves of each new best path
+	 */
+	public void setListener(IntConsumer listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts planning in the background
+	 */
+	public synchronized void start() {
+		if (worker != null) {
+			throw new IllegalStateException("Planner already started");
+		}
+		start_time = System.nanoTime();
+		worker = new Thread(this::run, "anytime-planner");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Plans until the deadline, or until no candidates are left, and returns the best path. Nothing
+	 * is waited for after the deadline, not even the first path.
+	 *
+	 * @param time_budget wall-clock time in milliseconds from now to plan for
+	 * @return the best path found, or null if the first path was not planned in time
+	 * @throws IllegalStateException if planning a candidate failed
+	 */
+	public ArrayList<PathStep> plan(long time_budget) {
+		var deadline = System.nanoTime() + time_budget * 1_000_000;
+		if (worker == null) {
+			start();
+		}
+		try {
+			var remaining = deadline - System.nanoTime();
+			if (remaining > 0) {
+				TimeUnit.NANOSECONDS.timedJoin(worker, remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while planning", e);
+		} finally {
+			cancel();
+		}
+		if (failure != null) {
+			throw new IllegalStateException("Planning a candidate failed", failure);
+		}
+		return best;
+	}
+
+	/**
+	 * Stops planning. The candidate being planned is interrupted and not used.
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		if (worker != null) {
+			worker.interrupt();
+		}
+	}
+
+	/**
+	 * @return the best path found so far, or null if there is none yet
+	 */
+	public ArrayList<PathStep> getBest() {
+		return best;
+	}
+
+	/**
+	 * @return true once no better path will be found
+	 */
+	public boolean isDone() {
+		return cancelled || (worker != null && !worker.isAlive());
+	}
+
+	/**
+	 * @return for each improvement, the milliseconds since the start and the number of moves
+	 */
+	public synchronized ArrayList<long[]> getImprovements() {
+		return new ArrayList<long[]>(improvements);
+	}
+
+	/**
+	 * Plans candidates one after another until cancelled
+	 */
+	private void run() {
+		try {
+			if (!cancelled) {
+				offer(path.generateQuickPath());
+			}
+			if (!cancelled) {
+				offer(path.generatePath());
+			}
+			for (var i = 1; i <= max_candidates && !cancelled; i++) {
+				offer(path.generatePath(new Random(seed + i)));
+			}
+		} catch (RuntimeException | Error e) {
+			// a candidate interrupted by cancel() gives up with an exception, which is expected
+			if (!cancelled) {
+				failure = e;
+			}
+		}
+	}
+
+	/**
+	 * Keeps a candidate if it is better than the best path so far
+	 *
+	 * @param candidate the path planned
+	 */
+	private void offer(ArrayList<PathStep> candidate) {
+		synchronized (this) {
+			if (cancelled) {
+				return;
+			}
+			if (best != null && !MultiStartPlanner.better(candidate, best, sensor_count)) {
+				return;
+			}
+			best = candidate;
+			improvements.add(new long[] { (System.nanoTime() - start_time) / 1_000_000, candidate.size() });
+		}
+		listener.accept(candidate.size());
+	}
+}
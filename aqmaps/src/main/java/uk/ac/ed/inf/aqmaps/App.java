@@ -1,10 +1,39 @@
 package uk.ac.ed.inf.aqmaps;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
 import com.mapbox.geojson.Point;
 
 /**
  * This is the entry point for the application.
  * 
+ * Optional planner settings are read from system properties:
+ * -Daqmaps.optimise.ms=[time limit of the local search of the tour optimisation in milliseconds, not counting
+ *                       the moves between sensors counted before it, 1000 by default]
+ * -Daqmaps.planner=[greedy or astar, greedy by default]
+ * -Daqmaps.legcache=[file to load planned legs from and save them to, no leg cache by default]
+ * -Daqmaps.legcache.size=[maximum number of legs in the leg cache, 10000 by default]
+ * -Daqmaps.candidates=[number of candidate paths to plan from the seed and keep the best of, 1 by default]
+ * -Daqmaps.workers=[number of threads planning the candidates, the number of processors by default]
+ * -Daqmaps.budget.ms=[wall-clock time in milliseconds for planning the candidates, 5000 by default]
+ * -Daqmaps.deadline.ms=[plan with the anytime planner and take its best path after this many milliseconds,
+ *                       the drone staying on the ground if there is none yet, not used by default]
+ * -Daqmaps.w3wcache=[file to load What3Words locations from and save them to, not used by default]
+ * -Daqmaps.w3wcache.warmup=[copy of the words directory of the server to fill the What3Words cache from]
+ * -Daqmaps.data=[copy of the directory the server serves, to read the data from instead of the server at the port]
+ * -Daqmaps.snapshots=[directory of mission snapshots to load days from, where snapshots of new days are saved]
+ * -Daqmaps.zonecache=[file to load the parsed no fly zones and their raster of moves from and save them to,
+ *                      not used by default]
+ * -Daqmaps.metrics=[file to save the metrics of the requests to as JSON at the end of the run, not saved by default]
+ * -Daqmaps.metrics.jmx=[true to register the metrics of the requests as MBeans, false by default]
+ * -Daqmaps.log=[format of the flight log: text, gzip or binary, text by default]
+ * -Daqmaps.fleet=[start locations of more drones to share the sensors with, as latitude,longitude pairs
+ *                 separated by semicolons, each inside the confinement area and outside the no fly zones;
+ *                 each drone saves flightpath-DD-MM-YYYY-N, not used by default]
+ * 
  * @author Michal Sadowski
  *
  */
@@ -36,35 +65,527 @@ public class App {
 			var seed = Long.parseLong(args[5]);
 			var port = Integer.parseInt(args[6]);
 
+			// Check the planner mode before anything is downloaded
+			try {
+				plannerMode();
+			} catch (IllegalArgumentException e) {
+				System.err.println("Wrong -Daqmaps.planner: " + e.getMessage());
+				System.exit(1);
+			}
+
+			// Parse the start locations of the fleet, if there is one
+			var fleet = System.getProperty("aqmaps.fleet");
+			ArrayList<Point> starts = null;
+			if (fleet != null) {
+				try {
+					starts = fleetStarts(start_loc, fleet);
+				} catch (IllegalArgumentException e) {
+					System.err.println("Wrong -Daqmaps.fleet: " + e.getMessage());
+					System.exit(1);
+				}
+			}
+
 			System.out.println("Successfully parsed arguments");
 
-			// Get path parameters
-			var srv = new Server(port, date);
-			var sensors = srv.getSensorsLocations();
-			var sensors_loc_hash = srv.getHashMap();
-			var jts_no_fly_zones = srv.getJTSNoFlyZones();
-
-			// Construct a path
-			var path = new Path(sensors, start_loc, jts_no_fly_zones);
-			var flightpath = path.generatePath();
-
-			// Perform a flight
-			var drone = new Drone(start_loc, sensors_loc_hash, srv);
-			drone.fly(flightpath);
-			
-			// Save flight log
-			var log_filename = "flightpath-" + DD + "-" + MM + "-" + YYYY + ".txt";
-			drone.export(log_filename);
-			
-			// Save readings taken during the flight
-			var readings = drone.getReadings();
-
-			// Save the flight as a GeoJSON map
-			var drone_path = drone.getPathMap();
-			var map = new AQMap(readings, drone_path, sensors_loc_hash);
-			var map_filename = "readings-" + DD + "-" + MM + "-" + YYYY + ".geojson";
-			map.export(map_filename);
+			// Get the no fly zones and the caches
+			var w3w_cache = loadW3WCache();
+			var zone_cache = loadZoneCache();
+			var srv = new Server(dataSource(port), date, new DayCache(1));
+			srv.setW3WCache(w3w_cache);
+			srv.setZoneCache(zone_cache);
+			try {
+				prefetch(srv, date);
+				var obstacles = srv.getObstacleIndex();
+				saveZoneCache(zone_cache);
+				var leg_cache_file = System.getProperty("aqmaps.legcache");
+				LegCache leg_cache = null;
+				if (leg_cache_file != null) {
+					leg_cache = loadLegCache(new File(leg_cache_file), obstacles);
+				}
+
+				if (starts != null) {
+					try {
+						checkStarts(starts, obstacles);
+					} catch (IllegalArgumentException e) {
+						System.err.println("Cannot fly the fleet: " + e.getMessage());
+						saveMetrics();
+						System.exit(1);
+					}
+					flyFleet(srv, date, starts, obstacles, leg_cache);
+				} else {
+					flyDay(srv, date, start_loc, seed, obstacles, leg_cache);
+				}
+				if (leg_cache != null) {
+					saveLegCache(leg_cache, new File(leg_cache_file));
+				}
+			} catch (ServerException e) {
+				System.err.println("Could not get data from the server: " + e.getMessage());
+				saveMetrics();
+				System.exit(1);
+			}
+			saveW3WCache(w3w_cache);
+			saveMetrics();
 			System.out.println("Successfully finished execution.");
 		}
 	}
+
+	/**
+	 * Reads the planner mode given by -Daqmaps.planner
+	 * 
+	 * @return the planner mode, greedy by default
+	 * @throws IllegalArgumentException if the property is not a planner mode
+	 */
+	static PlannerMode plannerMode() {
+		var mode = System.getProperty("aqmaps.planner", "greedy");
+		try {
+			return PlannerMode.valueOf(mode.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("'" + mode + "', expected greedy or astar");
+		}
+	}
+
+	/**
+	 * Chooses where to get the data from
+	 * 
+	 * @param port port at which the server is working
+	 * @return the directory given by -Daqmaps.data if set, the server at the port otherwise, with its
+	 *         requests recorded in the metrics
+	 */
+	static DataSource dataSource(int port) {
+		var data_dir = System.getProperty("aqmaps.data");
+		if (data_dir != null) {
+			return new MeteredDataSource(new FileDataSource(new File(data_dir)), Metrics.get());
+		}
+		return new MeteredDataSource(new HttpDataSource(port), Metrics.get());
+	}
+
+	/**
+	 * Saves the metrics of the requests to the file given by the system properties, if any
+	 */
+	static void saveMetrics() {
+		var file = System.getProperty("aqmaps.metrics");
+		if (file == null) {
+			return;
+		}
+		try {
+			Metrics.get().save(new File(file));
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Starts getting the data of a day. It is loaded from the day's mission snapshot if the directory
+	 * -Daqmaps.snapshots has one; otherwise it is got from the server, and a snapshot is saved if the
+	 * directory is set.
+	 * 
+	 * @param srv server giving the data of the day
+	 * @param date the day in format: [DD, MM, YYYY]
+	 * @throws ServerException if the data cannot be downloaded for the snapshot
+	 */
+	static void prefetch(Server srv, String[] date) {
+		var snapshots = System.getProperty("aqmaps.snapshots");
+		if (snapshots == null) {
+			srv.prefetch();
+			return;
+		}
+		var file = new File(snapshots, "mission-" + date[0] + "-" + date[1] + "-" + date[2] + ".bin");
+		try {
+			if (file.exists()) {
+				var snapshot = MissionSnapshot.load(file);
+				// a file renamed or copied from another day is replaced below
+				if (!snapshot.isOf(date)) {
+					throw new IOException(file + " is a mission snapshot of " + String.join("-", snapshot.date()));
+				}
+				snapshot.preload(srv);
+				return;
+			}
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+		}
+		srv.prefetch();
+		try {
+			MissionSnapshot.capture(srv, date).save(file);
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Plans a path for a day with the planner chosen by the system properties, performs the flight
+	 * and saves the flight log and the map of readings
+	 * 
+	 * @param srv server giving the data of the day
+	 * @param date the day in format: [DD, MM, YYYY]
+	 * @param start_loc starting location of the drone
+	 * @param seed seed of the randomised planners
+	 * @param obstacles the no fly zones to plan around
+	 * @param leg_cache cache of planned legs, or null
+	 * @return the path flown
+	 */
+	static ArrayList<PathStep> flyDay(Server srv, String[] date, Point start_loc, long seed, ObstacleIndex obstacles,
+			LegCache leg_cache) {
+		// Get path parameters
+		var sensors = srv.getSensorsLocations();
+		var sensors_loc_hash = srv.getHashMap();
+
+		// Construct a path
+		var path = new Path(sensors, start_loc, obstacles);
+		path.setOptimiseTimeLimit(Long.getLong("aqmaps.optimise.ms", 1000));
+		path.setMode(plannerMode());
+		if (leg_cache != null) {
+			path.setLegCache(leg_cache);
+		}
+		var candidates = Integer.getInteger("aqmaps.candidates", 1);
+		var deadline = Long.getLong("aqmaps.deadline.ms");
+		ArrayList<PathStep> flightpath;
+		if (deadline != null) {
+			var planner = new AnytimePlanner(path, sensors.size(), seed);
+			planner.setListener(moves -> System.out.println("Found a path of " + moves + " moves"));
+			flightpath = planner.plan(deadline);
+			if (flightpath == null) {
+				// nothing is flown later than the deadline allows
+				System.err.println("No path was planned within " + deadline + " ms, the drone stays on the ground");
+				flightpath = new ArrayList<PathStep>();
+			}
+		} else if (candidates > 1) {
+			var planner = new MultiStartPlanner(path, sensors.size(), seed);
+			planner.setCandidates(candidates);
+			planner.setWorkers(Integer.getInteger("aqmaps.workers", Runtime.getRuntime().availableProcessors()));
+			planner.setTimeBudget(Long.getLong("aqmaps.budget.ms", 5000));
+			flightpath = planner.plan();
+		} else {
+			flightpath = path.generatePath();
+		}
+
+		// Perform a flight, saving the flight log as the moves are made
+		var drone = flyLogged(srv, sensors_loc_hash, start_loc, flightpath,
+				"flightpath-" + date[0] + "-" + date[1] + "-" + date[2]);
+		
+		// Save readings taken during the flight
+		var readings = drone.getReadings();
+
+		// Save the flight as a GeoJSON map
+		var map = new AQMap(readings, drone.getTrace(), sensors_loc_hash);
+		var map_filename = "readings-" + date[0] + "-" + date[1] + "-" + date[2] + ".geojson";
+		map.export(map_filename);
+		return flightpath;
+	}
+
+	/**
+	 * Splits the sensors of a day among a fleet of drones, plans their paths in parallel, performs
+	 * the flights and saves a flight log for each drone and one map of the readings of all of them.
+	 * The sensors a drone cannot read within its moves are reported.
+	 * 
+	 * @param srv server giving the data of the day
+	 * @param date the day in format: [DD, MM, YYYY]
+	 * @param starts starting location of each drone
+	 * @param obstacles the no fly zones to plan around
+	 * @param leg_cache cache of planned legs, or null
+	 * @return the path flown by each drone
+	 */
+	static ArrayList<ArrayList<PathStep>> flyFleet(Server srv, String[] date, ArrayList<Point> starts,
+			ObstacleIndex obstacles, LegCache leg_cache) {
+		// Get path parameters
+		var sensors = srv.getSensorsLocations();
+		var sensors_loc_hash = srv.getHashMap();
+
+		// Split the sensors and plan a path for each drone
+		var planner = new FleetPlanner(sensors, starts, obstacles);
+		planner.setOptimiseTimeLimit(Long.getLong("aqmaps.optimise.ms", 1000));
+		planner.setMode(plannerMode());
+		if (leg_cache != null) {
+			planner.setLegCache(leg_cache);
+		}
+		planner.setWorkers(Integer.getInteger("aqmaps.workers", Runtime.getRuntime().availableProcessors()));
+		var clusters = planner.split();
+		var flightpaths = planner.plan(clusters);
+
+		// Perform the flights, each drone with a flight log of its own
+		var readings = new ArrayList<Reading>();
+		var traces = new ArrayList<FlightTrace>();
+		var unread_count = 0;
+		for (var d = 0; d < starts.size(); d++) {
+			var flightpath = flightpaths.get(d);
+			System.out.println("Drone " + (d + 1) + " has " + clusters.get(d).size() + " sensors, reads "
+					+ MultiStartPlanner.sensorsRead(flightpath) + " in " + flightpath.size() + " moves");
+			// a cluster may need more moves than a drone has
+			var unread = FleetPlanner.unread(clusters.get(d), flightpath);
+			if (!unread.isEmpty()) {
+				System.err.println("Drone " + (d + 1) + " cannot read " + unread.size() + " of its sensors within "
+						+ Path.max_moves + " moves: " + String.join(", ", unread));
+				unread_count += unread.size();
+			}
+			// a drone without sensors stays on the ground
+			if (flightpath.isEmpty()) {
+				continue;
+			}
+			var drone = flyLogged(srv, sensors_loc_hash, starts.get(d), flightpath,
+					"flightpath-" + date[0] + "-" + date[1] + "-" + date[2] + "-" + (d + 1));
+			readings.addAll(drone.getReadings());
+			traces.add(drone.getTrace());
+		}
+
+		if (unread_count > 0) {
+			System.err.println(unread_count + " of " + sensors.size() + " sensors are left unread, start more drones"
+					+ " or start them closer to the sensors");
+		}
+
+		// Save the flights as one GeoJSON map
+		var map = new AQMap(readings, traces, sensors_loc_hash);
+		var map_filename = "readings-" + date[0] + "-" + date[1] + "-" + date[2] + ".geojson";
+		map.export(map_filename);
+		return flightpaths;
+	}
+
+	/**
+	 * Lists the start locations of a fleet of drones
+	 * 
+	 * @param start_loc starting location of the first drone
+	 * @param fleet starting locations of the other drones in format: [latitude],[longitude];[latitude],[longitude]...
+	 * @return the start location of each drone
+	 * @throws IllegalArgumentException if a location is not a pair of numbers
+	 */
+	static ArrayList<Point> fleetStarts(Point start_loc, String fleet) {
+		var starts = new ArrayList<Point>();
+		starts.add(start_loc);
+		for (var location : fleet.split(";")) {
+			if (location.isBlank()) {
+				continue;
+			}
+			var coordinates = location.split(",");
+			var malformed = "start location '" + location.strip() + "' of drone " + (starts.size() + 1)
+					+ " is not in format [latitude],[longitude]";
+			if (coordinates.length != 2) {
+				throw new IllegalArgumentException(malformed);
+			}
+			try {
+				starts.add(Point.fromLngLat(Double.parseDouble(coordinates[1].strip()),
+						Double.parseDouble(coordinates[0].strip())));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(malformed, e);
+			}
+		}
+		return starts;
+	}
+
+	/**
+	 * Checks that every drone of a fleet starts where a drone may be
+	 * 
+	 * @param starts the start location of each drone
+	 * @param obstacles the no fly zones
+	 * @throws IllegalArgumentException naming the first drone starting outside the confinement area or
+	 *                                  inside a no fly zone
+	 */
+	static void checkStarts(ArrayList<Point> starts, ObstacleIndex obstacles) {
+		for (var d = 0; d < starts.size(); d++) {
+			var start = starts.get(d);
+			var where = "drone " + (d + 1) + " starts at " + start.latitude() + "," + start.longitude();
+			if (!ObstacleIndex.strictlyInside(start.longitude(), start.latitude())) {
+				throw new IllegalArgumentException(where + ", outside the confinement area");
+			}
+			if (obstacles.inNoFlyZone(start.longitude(), start.latitude())) {
+				throw new IllegalArgumentException(where + ", inside a no fly zone");
+			}
+		}
+	}
+
+	/**
+	 * Performs a flight, saving the flight log in the format given by -Daqmaps.log as the moves are made
+	 * 
+	 * @param srv server giving the readings
+	 * @param sensors_loc_hash a map of w3w names of the sensors to their point locations
+	 * @param start_loc starting location of the drone
+	 * @param flightpath the path to fly
+	 * @param log_name name of the flight log file without the extension
+	 * @return the drone after the flight
+	 */
+	private static Drone flyLogged(Server srv, HashMap<String, Point> sensors_loc_hash, Point start_loc,
+			ArrayList<PathStep> flightpath, String log_name) {
+		var drone = new Drone(start_loc, sensors_loc_hash, srv);
+		var log_format = System.getProperty("aqmaps.log", "text");
+		var log_filename = log_name
+				+ (log_format.equals("binary") ? ".bin" : log_format.equals("gzip") ? ".txt.gz" : ".txt");
+		var log_sink = openLogSink(log_format, new File(log_filename));
+		drone.setLogSink(log_sink);
+		drone.fly(flightpath);
+		if (log_sink != null) {
+			try {
+				log_sink.close();
+				if (drone.getLogFailure() != null) {
+					throw drone.getLogFailure();
+				}
+				System.out.println("Successfully saved " + log_filename);
+			} catch (IOException e) {
+				System.out.println("An error occurred:");
+				e.printStackTrace();
+				// the log was cut short, write the whole flight again
+				exportLog(drone, log_format, new File(log_filename));
+			}
+		}
+		return drone;
+	}
+
+	/**
+	 * Writes all of the moves of a flight to a new flight log file
+	 * 
+	 * @param drone the drone after the flight
+	 * @param format text, gzip or binary
+	 * @param file the file to write to
+	 */
+	private static void exportLog(Drone drone, String format, File file) {
+		var log_sink = openLogSink(format, file);
+		if (log_sink == null) {
+			return;
+		}
+		try (log_sink) {
+			drone.export(log_sink);
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+			return;
+		}
+		System.out.println("Successfully saved " + file);
+	}
+
+	/**
+	 * Opens a flight log file
+	 * 
+	 * @param format text, gzip or binary
+	 * @param file the file to write to
+	 * @return the sink writing to the file, or null if it cannot be opened
+	 */
+	static FlightLogSink openLogSink(String format, File file) {
+		try {
+			switch (format) {
+			case "gzip":
+				return FlightLogSink.gzip(file);
+			case "binary":
+				return FlightLogSink.binary(file);
+			default:
+				return FlightLogSink.text(file);
+			}
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Loads the leg cache from a file, starting with an empty one if it cannot be read
+	 * 
+	 * @param file the file to load from
+	 * @param obstacles the no fly zones the legs must have been planned around
+	 * @return the leg cache
+	 */
+	static LegCache loadLegCache(File file, ObstacleIndex obstacles) {
+		var capacity = Integer.getInteger("aqmaps.legcache.size", 10000);
+		try {
+			return LegCache.load(file, capacity, obstacles.fingerprint());
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+			return new LegCache(capacity, obstacles.fingerprint());
+		}
+	}
+
+	/**
+	 * Loads the What3Words cache from the file and fills it from the words directory given by the
+	 * system properties. Without them the cache is only kept in memory.
+	 * 
+	 * @return the What3Words cache
+	 */
+	static W3WCache loadW3WCache() {
+		var file = System.getProperty("aqmaps.w3wcache");
+		var words_dir = System.getProperty("aqmaps.w3wcache.warmup");
+		var w3w_cache = new W3WCache();
+		try {
+			if (file != null) {
+				w3w_cache = W3WCache.load(new File(file));
+			}
+			if (words_dir != null) {
+				w3w_cache.warmUp(new File(words_dir));
+			}
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+		}
+		return w3w_cache;
+	}
+
+	/**
+	 * Saves the What3Words cache to the file given by the system properties, if any, and reports how
+	 * useful it was
+	 * 
+	 * @param w3w_cache the cache to save
+	 */
+	static void saveW3WCache(W3WCache w3w_cache) {
+		var file = System.getProperty("aqmaps.w3wcache");
+		if (file == null) {
+			return;
+		}
+		System.out.println("What3Words cache: " + w3w_cache.getHits() + " hits, " + w3w_cache.getMisses() + " misses");
+		try {
+			w3w_cache.save(new File(file));
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Loads the zone cache from the file given by the system properties
+	 * 
+	 * @return the zone cache, or null if there is no file
+	 */
+	static ZoneCache loadZoneCache() {
+		var file = System.getProperty("aqmaps.zonecache");
+		if (file == null) {
+			return null;
+		}
+		try {
+			return ZoneCache.load(new File(file));
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+			return new ZoneCache();
+		}
+	}
+
+	/**
+	 * Saves the zone cache to the file given by the system properties, if it changed
+	 * 
+	 * @param zone_cache the cache to save, or null
+	 */
+	static void saveZoneCache(ZoneCache zone_cache) {
+		if (zone_cache == null) {
+			return;
+		}
+		try {
+			zone_cache.save(new File(System.getProperty("aqmaps.zonecache")));
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Saves the leg cache to a file and reports how useful it was
+	 * 
+	 * @param leg_cache the cache to save
+	 * @param file the file to save to
+	 */
+	static void saveLegCache(LegCache leg_cache, File file) {
+		System.out.println("Leg cache: " + leg_cache.getHits() + " hits, " + leg_cache.getMisses() + " misses");
+		try {
+			leg_cache.save(file);
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+		}
+	}
 }
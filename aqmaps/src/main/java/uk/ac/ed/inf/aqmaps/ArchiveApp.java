@@ -0,0 +1,72 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * Entry point for compacting the readings of every day of a date range into a ReadingsArchive.
+ * After saving the archive, it loads it back and aggregates the whole history once, to show what
+ * a query over the archive costs.
+ *
+ * Reads the aqmaps.data, aqmaps.http.* and aqmaps.metrics* system properties as App does.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class ArchiveApp {
+
+	/**
+	 * @param args should be eight arguments: first day, last day, port and archive file in format:
+	 *             [DD] [MM] [YYYY] [DD] [MM] [YYYY] [port] [archive file]
+	 */
+	public static void main(String[] args) {
+		// Check for validity of command line arguments
+		if (args.length != 8) {
+			System.err.println("Wrong number of arguments given. Usage:");
+			System.err.println("java -cp aqmaps.jar uk.ac.ed.inf.aqmaps.ArchiveApp [DD] [MM] [YYYY] [DD] [MM] [YYYY]"
+					+ " [port] [archive file]");
+			return;
+		}
+		// Parse arguments
+		var first_day = LocalDate.of(Integer.parseInt(args[2]), Integer.parseInt(args[1]), Integer.parseInt(args[0]));
+		var last_day = LocalDate.of(Integer.parseInt(args[5]), Integer.parseInt(args[4]), Integer.parseInt(args[3]));
+		var port = Integer.parseInt(args[6]);
+		var file = new File(args[7]);
+
+		System.out.println("Successfully parsed arguments");
+
+		try {
+			// Compact the days into the archive
+			var ingest_start = System.nanoTime();
+			ReadingsArchive.ingest(App.dataSource(port), first_day, last_day, file);
+			var ingest_millis = (System.nanoTime() - ingest_start) / 1_000_000;
+
+			// Scan the whole history of the archive
+			var archive = ReadingsArchive.load(file);
+			var scan_start = System.nanoTime();
+			var stats = archive.aggregate(archive.getFirstDay(), archive.getFirstDay().plusDays(archive.getDayCount() - 1));
+			var scan_micros = (System.nanoTime() - scan_start) / 1000;
+
+			var valid = 0L;
+			var low_battery = 0L;
+			for (var d = 0; d < stats.valid.length; d++) {
+				valid += stats.valid[d];
+				low_battery += stats.low_battery[d];
+			}
+			System.out.println("Archived " + archive.getRowCount() + " readings of " + archive.getSensorCount()
+					+ " sensors over " + archive.getDayCount() + " days in " + ingest_millis + " ms");
+			System.out.println("Scanned " + valid + " valid readings and " + low_battery + " low battery sensors in "
+					+ scan_micros + " us");
+			App.saveMetrics();
+		} catch (ServerException e) {
+			System.err.println("Could not get data from the server: " + e.getMessage());
+			App.saveMetrics();
+			System.exit(1);
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
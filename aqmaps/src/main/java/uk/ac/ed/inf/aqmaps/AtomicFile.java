@@ -0,0 +1,55 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replaces files atomically. The contents are written to a temporary file of their own next to the
+ * file, which is then moved over it, so readers see either the old file or the whole new one, and
+ * processes saving the same file at the same time do not write over each other's contents.
+ *
+ * @author Michal Sadowski
+ *
+ */
+class AtomicFile {
+
+	/**
+	 * Writes the contents of a file
+	 */
+	@FunctionalInterface
+	interface Contents {
+
+		/**
+		 * @param out the stream to write to, closed by the caller
+		 * @throws IOException if the contents cannot be written
+		 */
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	private AtomicFile() {
+	}
+
+	/**
+	 * Replaces a file with the contents written
+	 *
+	 * @param file     the file to replace
+	 * @param contents writes the new contents of the file
+	 * @throws IOException if the file cannot be written
+	 */
+	static void write(File file, Contents contents) throws IOException {
+		var tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try (var out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+				contents.writeTo(out);
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.mapbox.geojson.Point;
+
+/**
+ * Entry point for planning and flying every day of a date range in one run. The no fly zones and
+ * the leg cache are loaded once and shared by all days, which are processed in parallel. The files
+ * saved for each day are the same as the ones App saves.
+ * 
+ * Reads the same system properties as App, and also:
+ * -Daqmaps.parallelism=[number of days processed at once, the number of processors by default]
+ * 
+ * @author Michal Sadowski
+ *
+ */
+public class BatchApp {
+
+	private static final DateTimeFormatter day_format = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
+	/**
+	 * @param args should be ten arguments: first day, last day, start latitude, start longitude,
+	 *             seed, port in format: [DD] [MM] [YYYY] [DD] [MM] [YYYY] [start latitude]
+	 *             [start longitude] [seed] [port]
+	 */
+	public static void main(String[] args) {
+		// Check for validity of command line arguments
+		if (args.length != 10) {
+			System.err.println("Wrong number of arguments given. Usage:");
+			System.err.println("java -cp aqmaps.jar uk.ac.ed.inf.aqmaps.BatchApp [DD] [MM] [YYYY] [DD] [MM] [YYYY]"
+					+ " [start latitude] [start longitude] [seed] [port]");
+			return;
+		}
+		// Parse arguments
+		var first_day = LocalDate.of(Integer.parseInt(args[2]), Integer.parseInt(args[1]), Integer.parseInt(args[0]));
+		var last_day = LocalDate.of(Integer.parseInt(args[5]), Integer.parseInt(args[4]), Integer.parseInt(args[3]));
+		var start_lat = Double.parseDouble(args[6]);
+		var start_lon = Double.parseDouble(args[7]);
+		var start_loc = Point.fromLngLat(start_lon, start_lat);
+		var seed = Long.parseLong(args[8]);
+		var port = Integer.parseInt(args[9]);
+		var source = App.dataSource(port);
+		var parallelism = Integer.getInteger("aqmaps.parallelism", Runtime.getRuntime().availableProcessors());
+		try {
+			App.plannerMode();
+		} catch (IllegalArgumentException e) {
+			System.err.println("Wrong -Daqmaps.planner: " + e.getMessage());
+			System.exit(1);
+		}
+
+		System.out.println("Successfully parsed arguments");
+
+		// Get the no fly zones and the caches once for all days
+		var w3w_cache = App.loadW3WCache();
+		var zone_cache = App.loadZoneCache();
+		ObstacleIndex obstacles;
+		try {
+			var zones_srv = new Server(source, date(first_day), new DayCache(1));
+			zones_srv.setZoneCache(zone_cache);
+			obstacles = zones_srv.getObstacleIndex();
+			App.saveZoneCache(zone_cache);
+		} catch (ServerException e) {
+			System.err.println("Could not get data from the server: " + e.getMessage());
+			App.saveMetrics();
+			System.exit(1);
+			return;
+		}
+		var leg_cache_file = System.getProperty("aqmaps.legcache");
+		LegCache leg_cache = null;
+		if (leg_cache_file != null) {
+			leg_cache = App.loadLegCache(new File(leg_cache_file), obstacles);
+		}
+		var shared_leg_cache = leg_cache;
+		// each day's document is needed only while the day is flown
+		var day_cache = new DayCache(parallelism);
+
+		// Fly the days in parallel
+		var batch_start = System.nanoTime();
+		var pool = Executors.newFixedThreadPool(parallelism);
+		var days = new ArrayList<LocalDate>();
+		var futures = new ArrayList<Future<ArrayList<PathStep>>>();
+		var millis = new long[(int) (last_day.toEpochDay() - first_day.toEpochDay() + 1)];
+		for (var day = first_day; !day.isAfter(last_day); day = day.plusDays(1)) {
+			var date = date(day);
+			var index = days.size();
+			days.add(day);
+			futures.add(pool.submit(() -> {
+				var day_start = System.nanoTime();
+				var srv = new Server(source, date, day_cache);
+				srv.setW3WCache(w3w_cache);
+				App.prefetch(srv, date);
+				var flightpath = App.flyDay(srv, date, start_loc, seed, obstacles, shared_leg_cache);
+				millis[index] = (System.nanoTime() - day_start) / 1_000_000;
+				return flightpath;
+			}));
+		}
+
+		// Summarise the days in order
+		var summary = new StringBuilder("Day,moves,sensors read,milliseconds\n");
+		var total_moves = 0L;
+		var failed = 0;
+		for (var i = 0; i < days.size(); i++) {
+			summary.append(days.get(i).format(day_format));
+			try {
+				var flightpath = futures.get(i).get();
+				total_moves += flightpath.size();
+				summary.append("," + flightpath.size() + "," + MultiStartPlanner.sensorsRead(flightpath) + "," + millis[i]);
+			} catch (ExecutionException e) {
+				failed++;
+				summary.append(",failed: " + e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			summary.append("\n");
+		}
+		pool.shutdown();
+		var batch_millis = (System.nanoTime() - batch_start) / 1_000_000;
+
+		if (leg_cache != null) {
+			App.saveLegCache(leg_cache, new File(leg_cache_file));
+		}
+		App.saveW3WCache(w3w_cache);
+		App.saveMetrics();
+		System.out.print(summary);
+		System.out.println("Flew " + (days.size() - failed) + " of " + days.size() + " days with " + total_moves
+				+ " moves in " + batch_millis + " ms");
+	}
+
+	/**
+	 * @return the day in format: [DD, MM, YYYY]
+	 */
+	private static String[] date(LocalDate day) {
+		return day.format(day_format).split("-");
+	}
+}
@@ -0,0 +1,82 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Writes the flight log as binary records. Sensor locations are written once and then referred
+ * to by their number, as a drone passes near the same sensors many times.
+ *
+ * The file is little endian and laid out as:
+ * header: magic "AQFL", version (2 ints)
+ * records: no (int), longitude and latitude before (doubles), angle (short), longitude and latitude
+ *          after (doubles), sensor number (short), then the UTF-8 sensor location with its length (short)
+ *          if the number is new; number 0 is "null"
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class BinaryLogSink implements FlightLogSink {
+
+	final static int file_magic = 0x4151464c; // "AQFL"
+	final static int file_version = 1;
+	// size of a record without a new sensor location
+	private final static int record_size = Integer.BYTES + 4 * Double.BYTES + 2 * Short.BYTES;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	private final HashMap<String, Integer> sensors = new HashMap<String, Integer>();
+
+	/**
+	 * @param channel the channel to write to, closed with the sink
+	 */
+	public BinaryLogSink(WritableByteChannel channel) {
+		this.channel = channel;
+		sensors.put("null", 0);
+		buffer.putInt(file_magic).putInt(file_version);
+	}
+
+	@Override
+	public void write(int no, double from_lon, double from_lat, int angle, double to_lon, double to_lat, String sensor)
+			throws IOException {
+		var id = sensors.get(sensor == null ? "null" : sensor);
+		byte[] location = null;
+		if (id == null) {
+			id = sensors.size();
+			sensors.put(sensor, id);
+			location = sensor.getBytes(StandardCharsets.UTF_8);
+		}
+		if (buffer.remaining() < record_size + Short.BYTES + (location == null ? 0 : location.length)) {
+			flush();
+		}
+		buffer.putInt(no).putDouble(from_lon).putDouble(from_lat).putShort((short) angle).putDouble(to_lon)
+				.putDouble(to_lat).putShort((short) (int) id);
+		if (location != null) {
+			buffer.putShort((short) location.length).put(location);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes the buffer to the channel and empties it
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
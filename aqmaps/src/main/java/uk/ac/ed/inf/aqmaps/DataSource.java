@@ -0,0 +1,28 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Gives the documents of the server, addressed by their path on the server, e.g.
+ * /buildings/no-fly-zones.geojson
+ * 
+ * @author Michal Sadowski
+ *
+ */
+public interface DataSource {
+
+	/**
+	 * Starts getting a document, parsing it as it is read
+	 * 
+	 * @param url_params the path of the document on the server
+	 * @param parser parses the contents of the document
+	 * @return the parsed document, or a ServerException if it cannot be got or parsed
+	 */
+	<T> CompletableFuture<T> fetch(String url_params, DocumentParser<T> parser);
+
+	/**
+	 * @param url_params the path of the document on the server
+	 * @return where the document is got from, e.g. its URL
+	 */
+	String location(String url_params);
+}
@@ -0,0 +1,98 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded least recently used cache of the parsed air quality documents of days. One cache can
+ * be shared by the servers of many days.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class DayCache {
+
+	private final int capacity;
+	private final LinkedHashMap<String, DayReadings> days;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param capacity maximum number of days to keep
+	 */
+	public DayCache(int capacity) {
+		this.capacity = capacity;
+		// access order makes the eldest entry the least recently used one
+		this.days = new LinkedHashMap<String, DayReadings>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, DayReadings> eldest) {
+				return size() > DayCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Looks up the readings of a day
+	 *
+	 * @param day identifies the document of the day
+	 * @return the readings, or null if the day is not cached
+	 */
+	public synchronized DayReadings get(String day) {
+		var readings = days.get(day);
+		if (readings != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return readings;
+	}
+
+	/**
+	 * Stores the readings of a day
+	 *
+	 * @param day identifies the document of the day
+	 * @param readings the readings
+	 */
+	public synchronized void put(String day, DayReadings readings) {
+		days.put(day, readings);
+	}
+
+	/**
+	 * Removes a day, so that its document is downloaded again when next needed
+	 *
+	 * @param day identifies the document of the day
+	 */
+	public synchronized void invalidate(String day) {
+		days.remove(day);
+	}
+
+	/**
+	 * Removes all days
+	 */
+	public synchronized void invalidateAll() {
+		days.clear();
+	}
+
+	/**
+	 * @return number of lookups that found the day
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups that did not find the day
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of days stored
+	 */
+	public synchronized int size() {
+		return days.size();
+	}
+}
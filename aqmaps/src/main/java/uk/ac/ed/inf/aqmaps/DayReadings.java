@@ -0,0 +1,112 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The readings of the sensors of a day, stored as columns in the order of the document. Each
+ * location appears once; readings that are not numbers, e.g. "null", are stored as NaN together
+ * with their text in the document.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class DayReadings {
+
+	private final String[] locations;
+	private final double[] battery;
+	private final double[] reading;
+	private final String[] text;
+	private final HashMap<String, Integer> index;
+
+	/**
+	 * @param locations w3w locations of the sensors, without repetitions
+	 * @param battery battery levels of the sensors
+	 * @param reading readings of the sensors
+	 * @param text the readings that are not numbers as given in the document, null for the others
+	 * @param size number of sensors, the arrays may be longer
+	 */
+	DayReadings(String[] locations, double[] battery, double[] reading, String[] text, int size) {
+		this.locations = Arrays.copyOf(locations, size);
+		this.battery = Arrays.copyOf(battery, size);
+		this.reading = Arrays.copyOf(reading, size);
+		this.text = Arrays.copyOf(text, size);
+		this.index = new HashMap<String, Integer>(2 * size);
+		for (var i = 0; i < size; i++) {
+			index.put(locations[i], i);
+		}
+	}
+
+	/**
+	 * @return number of sensors
+	 */
+	public int size() {
+		return locations.length;
+	}
+
+	/**
+	 * @return w3w locations of the sensors, in the order of the document
+	 */
+	public List<String> locations() {
+		return Collections.unmodifiableList(Arrays.asList(locations));
+	}
+
+	/**
+	 * @param i position of the sensor in the document
+	 * @return w3w location of the sensor
+	 */
+	public String location(int i) {
+		return locations[i];
+	}
+
+	/**
+	 * @param i position of the sensor in the document
+	 * @return battery level of the sensor
+	 */
+	public double battery(int i) {
+		return battery[i];
+	}
+
+	/**
+	 * @param i position of the sensor in the document
+	 * @return reading of the sensor, NaN if it is not a number
+	 */
+	public double reading(int i) {
+		return reading[i];
+	}
+
+	/**
+	 * @param i position of the sensor in the document
+	 * @return reading of the sensor as given in the document if it is not a number, otherwise null
+	 */
+	public String text(int i) {
+		return text[i];
+	}
+
+	/**
+	 * @param w3w the w3w location of a sensor
+	 * @return position of the sensor in the document, or -1 if there is no such sensor
+	 */
+	public int indexOf(String w3w) {
+		var i = index.get(w3w);
+		return i != null ? i : -1;
+	}
+
+	/**
+	 * Creates a Reading of a sensor. A reading that is not a number is given as in the document,
+	 * a missing one or a JSON null as "null".
+	 *
+	 * @param w3w the w3w location of the sensor
+	 * @return the reading, or null if there is no such sensor
+	 */
+	public Reading get(String w3w) {
+		var i = indexOf(w3w);
+		if (i < 0) {
+			return null;
+		}
+		var value = Double.isNaN(reading[i]) ? text[i] : Double.toString(reading[i]);
+		return new Reading(locations[i], battery[i], value);
+	}
+}
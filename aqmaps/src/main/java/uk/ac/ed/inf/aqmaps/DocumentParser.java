@@ -0,0 +1,22 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses a document while it is read from a data source
+ *
+ * @param <T> type of the parsed document
+ * @author Michal Sadowski
+ *
+ */
+@FunctionalInterface
+public interface DocumentParser<T> {
+
+	/**
+	 * @param in the contents of the document, closed by the caller
+	 * @return the parsed document
+	 * @throws IOException if the document cannot be read or is malformed
+	 */
+	T parse(InputStream in) throws IOException;
+}
@@ -1,7 +1,6 @@
 package uk.ac.ed.inf.aqmaps;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -9,7 +8,8 @@ import java.util.HashMap;
 import com.mapbox.geojson.Point;
 
 /**
- * Imitates a drone
+ * Imitates a drone. The moves of a flight can be written to a FlightLogSink as they are made,
+ * or exported afterwards.
  * 
  * @author Michal Sadowski
  *
@@ -17,7 +17,9 @@ import com.mapbox.geojson.Point;
 public class Drone {
 
 	private Point init_loc;
-	private ArrayList<LogEntry> log = new ArrayList<LogEntry>();
+	private FlightTrace trace;
+	private FlightLogSink log_sink;
+	private IOException log_failure;
 	private HashMap<String, Point> sensors_hash;
 	private Server srv;
 	private ArrayList<Reading> readings = new ArrayList<Reading>(); 
@@ -33,21 +35,23 @@ public class Drone {
 		this.srv = srv;
 	}
 
+	/**
+	 * Sets where to write each move while flying. The sink is not closed by the drone.
+	 * 
+	 * @param log_sink the sink, or null to only keep the moves for export
+	 */
+	public void setLogSink(FlightLogSink log_sink) {
+		this.log_sink = log_sink;
+	}
+
 	/**
 	 * Saves the log of the flight to a file
 	 * 
 	 * @param outfile name of the file to save to
 	 */
 	public void export(String outfile) {
-		try {
-			BufferedWriter writer = new BufferedWriter(new FileWriter(outfile));
-			for (var l : log) {
-				var str = l.getNo() + "," + l.getLoc_before().longitude() + "," + l.getLoc_before().latitude() + ","
-						+ l.getAngle() + "," + l.getLoc_after().longitude() + "," + l.getLoc_after().latitude() + ","+l.getSensor();
-				writer.write(str);
-				writer.newLine();
-			}
-			writer.close();
+		try (var sink = FlightLogSink.text(new File(outfile))) {
+			export(sink);
 			System.out.println("Successfully saved " + outfile);
 		} catch (IOException e) {
 			System.out.println("An error occurred:");
@@ -55,6 +59,18 @@ public class Drone {
 		}
 	}
 
+	/**
+	 * Writes the moves of the flight to a sink
+	 * 
+	 * @param sink the sink to write to, not closed
+	 * @throws IOException if a move cannot be written
+	 */
+	public void export(FlightLogSink sink) throws IOException {
+		if (trace != null) {
+			trace.writeTo(sink);
+		}
+	}
+
 	/**
 	 * Performs a flight by following the specified path and saves readings from the sensors.
 	 * 
@@ -62,6 +78,8 @@ public class Drone {
 	 */
 	public void fly(ArrayList<PathStep> path) {
 		var curr_loc = init_loc;
+		trace = new FlightTrace(init_loc.longitude(), init_loc.latitude());
+		log_failure = null;
 		// follow the provided path
 		for (var i = 0; i < path.size(); i++) {
 			// move
@@ -78,8 +96,17 @@ public class Drone {
 				}
 			}
 			// report to the log
-			var curr_log = new LogEntry(i+1, curr_loc, moved_loc, path_step.angle, sensor_to_read);
-			log.add(curr_log);
+			trace.add(path_step.angle, moved_loc.longitude(), moved_loc.latitude(), sensor_to_read);
+			if (log_sink != null) {
+				try {
+					log_sink.write(i + 1, curr_loc.longitude(), curr_loc.latitude(), path_step.angle,
+							moved_loc.longitude(), moved_loc.latitude(), sensor_to_read);
+				} catch (IOException e) {
+					// keep flying, the moves can still be exported
+					log_failure = e;
+					log_sink = null;
+				}
+			}
 
 			// update the location for next move
 			curr_loc = moved_loc;
@@ -87,21 +114,22 @@ public class Drone {
 	}
 
 	/**
-	 * Creates a list of points where the drone has been
+	 * Tells whether the log sink missed moves of the last flight. The sink is dropped when a move
+	 * cannot be written to it, so the log holds only the moves before that one.
 	 * 
-	 * @return list of visited points
+	 * @return the error writing to the log sink, or null if every move was written
 	 */
-	public ArrayList<Point> getPathMap() {
-		var path_map = new ArrayList<Point>();
-		// add initial location
-		path_map.add(log.get(0).getLoc_before());
-
-		// add all other points
-		for (var e : log) {
-			path_map.add(e.getLoc_after());
-		}
+	public IOException getLogFailure() {
+		return log_failure;
+	}
 
-		return path_map;
+	/**
+	 * Gives the moves of the last flight
+	 * 
+	 * @return the trace of the flight, or null before flying
+	 */
+	public FlightTrace getTrace() {
+		return trace;
 	}
 	
 	/**
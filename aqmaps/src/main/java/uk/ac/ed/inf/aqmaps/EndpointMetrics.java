@@ -0,0 +1,121 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the requests of one class of endpoints of the server, e.g. maps, and how long they took.
+ * Latencies are counted in a histogram of fixed buckets. It can be updated from any thread.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class EndpointMetrics implements EndpointMetricsMBean {
+
+	// upper bounds of the buckets in milliseconds, the last bucket has none
+	private final static long[] buckets = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, Long.MAX_VALUE };
+
+	private final String name;
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong cache_hits = new AtomicLong();
+	private final AtomicLong latency_nanos = new AtomicLong();
+	private final AtomicLongArray histogram = new AtomicLongArray(buckets.length);
+	private final ConcurrentHashMap<Integer, AtomicLong> statuses = new ConcurrentHashMap<Integer, AtomicLong>();
+
+	/**
+	 * @param name name of the class of endpoints
+	 */
+	EndpointMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records a finished request
+	 *
+	 * @param nanos time from the request to its parsed document
+	 * @param bytes number of bytes of the document read
+	 * @param status status the request was answered with, -1 if it was not answered
+	 * @param failed whether no document was got
+	 */
+	public void recordRequest(long nanos, long bytes, int status, boolean failed) {
+		requests.incrementAndGet();
+		if (failed) {
+			errors.incrementAndGet();
+		}
+		this.bytes.addAndGet(bytes);
+		latency_nanos.addAndGet(nanos);
+		var millis = nanos / 1_000_000;
+		var bucket = 0;
+		while (millis >= buckets[bucket]) {
+			bucket++;
+		}
+		histogram.incrementAndGet(bucket);
+		statuses.computeIfAbsent(status, key -> new AtomicLong()).incrementAndGet();
+	}
+
+	/**
+	 * Records a document served from a cache
+	 */
+	public void recordCacheHit() {
+		cache_hits.incrementAndGet();
+	}
+
+	/**
+	 * @return name of the class of endpoints
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getRequests() {
+		return requests.get();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cache_hits.get();
+	}
+
+	@Override
+	public double getMeanLatencyMillis() {
+		var count = requests.get();
+		return count > 0 ? latency_nanos.get() / 1e6 / count : 0;
+	}
+
+	@Override
+	public long[] getLatencyBucketsMillis() {
+		return buckets.clone();
+	}
+
+	@Override
+	public long[] getLatencyHistogram() {
+		var counts = new long[buckets.length];
+		for (var i = 0; i < counts.length; i++) {
+			counts[i] = histogram.get(i);
+		}
+		return counts;
+	}
+
+	@Override
+	public Map<Integer, Long> getStatusCounts() {
+		var counts = new TreeMap<Integer, Long>();
+		statuses.forEach((status, count) -> counts.put(status, count.get()));
+		return counts;
+	}
+}
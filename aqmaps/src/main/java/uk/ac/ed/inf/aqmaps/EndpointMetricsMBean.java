@@ -0,0 +1,52 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Map;
+
+/**
+ * The metrics of one class of endpoints of the server as exposed over JMX
+ *
+ * @author Michal Sadowski
+ *
+ */
+public interface EndpointMetricsMBean {
+
+	/**
+	 * @return number of documents requested from the data source
+	 */
+	long getRequests();
+
+	/**
+	 * @return number of requests that failed
+	 */
+	long getErrors();
+
+	/**
+	 * @return number of bytes of the documents read
+	 */
+	long getBytes();
+
+	/**
+	 * @return number of documents served from a cache instead of the data source
+	 */
+	long getCacheHits();
+
+	/**
+	 * @return mean time in milliseconds from a request to its parsed document
+	 */
+	double getMeanLatencyMillis();
+
+	/**
+	 * @return upper bounds in milliseconds of the buckets of the latency histogram, the last one unbounded
+	 */
+	long[] getLatencyBucketsMillis();
+
+	/**
+	 * @return number of requests in each bucket of the latency histogram
+	 */
+	long[] getLatencyHistogram();
+
+	/**
+	 * @return number of requests answered with each status, -1 for requests not answered
+	 */
+	Map<Integer, Long> getStatusCounts();
+}
@@ -0,0 +1,85 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads the documents of the server directly from a copy of its directory, e.g. WebServer, by
+ * mapping the files into memory. The documents are read when fetched, as reading local files
+ * takes less time than handing the work to another thread.
+ * 
+ * @author Michal Sadowski
+ *
+ */
+public class FileDataSource implements DataSource {
+
+	private final File root;
+
+	/**
+	 * @param root the directory the server serves, containing maps, words and buildings
+	 */
+	public FileDataSource(File root) {
+		this.root = root;
+	}
+
+	@Override
+	public <T> CompletableFuture<T> fetch(String url_params, DocumentParser<T> parser) {
+		var file = new File(root, url_params);
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			var mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			try (var in = new BufferInputStream(mapped)) {
+				return CompletableFuture.completedFuture(parser.parse(in));
+			}
+		} catch (NoSuchFileException e) {
+			return CompletableFuture.failedFuture(new ServerException("No file " + file, 404));
+		} catch (IOException | RuntimeException e) {
+			return CompletableFuture.failedFuture(new ServerException("Reading " + file + " failed", e));
+		}
+	}
+
+	@Override
+	public String location(String url_params) {
+		return new File(root, url_params).getPath();
+	}
+
+	/**
+	 * Reads the bytes of a buffer
+	 */
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			var count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
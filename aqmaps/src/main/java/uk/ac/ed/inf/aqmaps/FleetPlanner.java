@@ -0,0 +1,316 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import com.mapbox.geojson.Point;
+
+/**
+ * Plans the flights of a fleet of drones which share the sensors of a day, as one drone can only
+ * read as many sensors as its 150 moves reach. Each drone has its own start location, to which it
+ * returns.
+ *
+ * The sensors are split by balanced k-medoids on the number of moves between locations, so that
+ * the clusters follow the way around the no fly zones rather than straight lines. Every drone gets
+ * at most its share of the sensors, rounded up: the first round assigns the sensors by the moves
+ * from the start of each drone, and each later round by the moves from the start plus the moves
+ * from the medoid of the drone's cluster of the round before, until the medoids stop changing, as
+ * a drone flies out to its cluster and back. Then the path of each drone is planned on a thread of
+ * its own.
+ *
+ * The split balances the number of sensors, not the moves: a cluster far from its drone's start
+ * may need more than 150 moves, and then its path leaves some of its sensors unread. unread()
+ * lists them, so that they can be reported.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class FleetPlanner {
+
+	private final static int max_rounds = 10;
+
+	private final ArrayList<SensorLocation> sensors;
+	private final ArrayList<Point> starts;
+	private final ObstacleIndex obstacles;
+	// only used to count the moves of legs between any two locations
+	private final Path legs;
+	private PlannerMode mode = PlannerMode.GREEDY;
+	private LegCache leg_cache = null;
+	private long optimise_time_limit = 1000;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	// moves between sensors, -1 until counted
+	private final int[][] sensor_moves;
+
+	/**
+	 * @param sensors the sensors of the day
+	 * @param starts start and end location of each drone
+	 * @param obstacles index of the areas to avoid, shared by all the drones
+	 */
+	public FleetPlanner(ArrayList<SensorLocation> sensors, ArrayList<Point> starts, ObstacleIndex obstacles) {
+		this.sensors = sensors;
+		this.starts = starts;
+		this.obstacles = obstacles;
+		this.legs = new Path(sensors, starts.get(0), obstacles);
+		this.sensor_moves = new int[sensors.size()][sensors.size()];
+		for (var row : sensor_moves) {
+			Arrays.fill(row, -1);
+		}
+	}
+
+	/**
+	 * @param mode the planner mode of every drone, GREEDY by default
+	 */
+	public void setMode(PlannerMode mode) {
+		this.mode = mode;
+		legs.setMode(mode);
+	}
+
+	/**
+	 * @param leg_cache cache of planned legs shared by every drone, or null
+	 */
+	public void setLegCache(LegCache leg_cache) {
+		this.leg_cache = leg_cache;
+		legs.setLegCache(leg_cache);
+	}
+
+	/**
+	 * @param optimise_time_limit time limit in milliseconds of the tour optimisation of each drone
+	 */
+	public void setOptimiseTimeLimit(long optimise_time_limit) {
+		this.optimise_time_limit = optimise_time_limit;
+	}
+
+	/**
+	 * @param workers number of drones to plan at once, the number of processors by default
+	 */
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	/**
+	 * Splits the sensors among the drones
+	 *
+	 * @return the sensors of each drone, in the order of the drones
+	 */
+	public ArrayList<ArrayList<SensorLocation>> split() {
+		var drones = starts.size();
+		var capacity = (sensors.size() + drones - 1) / drones;
+
+		// the first round measures from the starts, as there are no clusters yet
+		var start_costs = new int[drones][];
+		for (var d = 0; d < drones; d++) {
+			var start = starts.get(d);
+			start_costs[d] = movesFrom(start.longitude(), start.latitude());
+		}
+		var costs = start_costs.clone();
+		var assignment = assign(costs, capacity);
+		var medoids = new int[drones];
+		Arrays.fill(medoids, -1);
+
+		for (var round = 1; round < max_rounds; round++) {
+			// move the centre of each cluster to its medoid
+			var changed = false;
+			for (var d = 0; d < drones; d++) {
+				var medoid = medoid(assignment, d);
+				if (medoid != medoids[d]) {
+					medoids[d] = medoid;
+					changed = true;
+				}
+			}
+			if (!changed) {
+				break;
+			}
+			for (var d = 0; d < drones; d++) {
+				if (medoids[d] >= 0) {
+					var medoid_costs = sensorMoves(medoids[d]);
+					var start_cost = start_costs[d];
+					costs[d] = IntStream.range(0, sensors.size()).map(s -> start_cost[s] + medoid_costs[s]).toArray();
+				}
+			}
+			assignment = assign(costs, capacity);
+		}
+
+		var clusters = new ArrayList<ArrayList<SensorLocation>>();
+		for (var d = 0; d < drones; d++) {
+			clusters.add(new ArrayList<SensorLocation>());
+		}
+		// keep the order of the sensors of the day within each cluster
+		for (var s = 0; s < sensors.size(); s++) {
+			clusters.get(assignment[s]).add(sensors.get(s));
+		}
+		return clusters;
+	}
+
+	/**
+	 * Plans the path of each drone, the drones in parallel
+	 *
+	 * @param clusters the sensors of each drone, as given by split()
+	 * @return the path of each drone, in the order of the drones; empty for a drone without sensors
+	 */
+	public ArrayList<ArrayList<PathStep>> plan(ArrayList<ArrayList<SensorLocation>> clusters) {
+		var pool = Executors.newFixedThreadPool(workers);
+		try {
+			var futures = new ArrayList<Future<ArrayList<PathStep>>>();
+			for (var d = 0; d < clusters.size(); d++) {
+				var path = new Path(clusters.get(d), starts.get(d), obstacles);
+				path.setMode(mode);
+				path.setOptimiseTimeLimit(optimise_time_limit);
+				if (leg_cache != null) {
+					path.setLegCache(leg_cache);
+				}
+				var empty = clusters.get(d).isEmpty();
+				futures.add(pool.submit(() -> empty ? new ArrayList<PathStep>() : path.generatePath()));
+			}
+
+			var paths = new ArrayList<ArrayList<PathStep>>();
+			for (var future : futures) {
+				paths.add(future.get());
+			}
+			return paths;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while planning", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Planning a drone failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Lists the sensors of a drone which its path does not read
+	 *
+	 * @param cluster the sensors of the drone, as given by split()
+	 * @param path the path of the drone, as given by plan()
+	 * @return w3w locations of the sensors left unread, in the order of the cluster
+	 */
+	public static ArrayList<String> unread(ArrayList<SensorLocation> cluster, ArrayList<PathStep> path) {
+		var read = new HashSet<String>();
+		for (var step : path) {
+			read.add(step.sensor_to_read);
+		}
+		var unread = new ArrayList<String>();
+		for (var sensor : cluster) {
+			if (!read.contains(sensor.location)) {
+				unread.add(sensor.location);
+			}
+		}
+		return unread;
+	}
+
+	/**
+	 * Assigns every sensor to a drone with room left, sensors with the most to lose first: the
+	 * regret of a sensor is how many more moves its second best drone costs than its best one.
+	 *
+	 * @param costs moves of each drone to each sensor
+	 * @param capacity maximum number of sensors of a drone
+	 * @return the drone of each sensor
+	 */
+	private int[] assign(int[][] costs, int capacity) {
+		var drones = costs.length;
+		var assignment = new int[sensors.size()];
+		Arrays.fill(assignment, -1);
+		var load = new int[drones];
+
+		for (var assigned = 0; assigned < sensors.size(); assigned++) {
+			var chosen_sensor = -1;
+			var chosen_drone = -1;
+			var chosen_regret = -1;
+			for (var s = 0; s < sensors.size(); s++) {
+				if (assignment[s] >= 0) {
+					continue;
+				}
+				// find the best and second best drones with room left
+				var best = -1;
+				var second = -1;
+				for (var d = 0; d < drones; d++) {
+					if (load[d] == capacity) {
+						continue;
+					}
+					if (best < 0 || costs[d][s] < costs[best][s]) {
+						second = best;
+						best = d;
+					} else if (second < 0 || costs[d][s] < costs[second][s]) {
+						second = d;
+					}
+				}
+				var regret = second < 0 ? Integer.MAX_VALUE : costs[second][s] - costs[best][s];
+				if (regret > chosen_regret) {
+					chosen_sensor = s;
+					chosen_drone = best;
+					chosen_regret = regret;
+				}
+			}
+			assignment[chosen_sensor] = chosen_drone;
+			load[chosen_drone]++;
+		}
+		return assignment;
+	}
+
+	/**
+	 * Finds the sensor of a cluster with the fewest moves in total to the others
+	 *
+	 * @return number of the medoid sensor, or -1 for an empty cluster
+	 */
+	private int medoid(int[] assignment, int drone) {
+		var members = IntStream.range(0, sensors.size()).filter(s -> assignment[s] == drone).toArray();
+		// count the moves between the members in parallel, each member's row on one thread
+		IntStream.of(members).parallel().forEach(from -> {
+			for (var to : members) {
+				sensorMoves(from, to);
+			}
+		});
+
+		var medoid = -1;
+		var medoid_moves = Long.MAX_VALUE;
+		for (var candidate : members) {
+			var moves = 0L;
+			for (var member : members) {
+				moves += sensor_moves[candidate][member];
+			}
+			if (moves < medoid_moves) {
+				medoid = candidate;
+				medoid_moves = moves;
+			}
+		}
+		return medoid;
+	}
+
+	/**
+	 * @return moves from a location to within range of each sensor
+	 */
+	private int[] movesFrom(double lon, double lat) {
+		return IntStream.range(0, sensors.size()).parallel().map(s -> legs.legCost(lon, lat,
+				sensors.get(s).point.longitude(), sensors.get(s).point.latitude(), Path.sensor_range)).toArray();
+	}
+
+	/**
+	 * @return moves from a sensor to within range of each sensor
+	 */
+	private int[] sensorMoves(int from) {
+		return IntStream.range(0, sensors.size()).parallel().map(to -> sensorMoves(from, to)).toArray();
+	}
+
+	/**
+	 * Counts the moves from a sensor to within range of another, once for each pair
+	 *
+	 * @return number of moves
+	 */
+	private int sensorMoves(int from, int to) {
+		if (from == to) {
+			return 0;
+		}
+		if (sensor_moves[from][to] < 0) {
+			var a = sensors.get(from).point;
+			var b = sensors.get(to).point;
+			sensor_moves[from][to] = legs.legCost(a.longitude(), a.latitude(), b.longitude(), b.latitude(),
+					Path.sensor_range);
+		}
+		return sensor_moves[from][to];
+	}
+}
@@ -0,0 +1,146 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a flight log written by any FlightLogSink back into a FlightTrace. The format is told by
+ * the first bytes of the file: gzip compressed text, binary records or plain text.
+ *
+ * A log is rejected if its moves are not numbered from 1 in order, or if a move does not start
+ * where the one before it ended, as the trace keeps each position only once.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class FlightLogReader {
+
+	private final static int gzip_magic = 0x8b1f;
+
+	/**
+	 * @param file the flight log
+	 * @return the moves of the flight
+	 * @throws IOException if the file cannot be read or is not a valid flight log
+	 */
+	public static FlightTrace read(File file) throws IOException {
+		var bytes = Files.readAllBytes(file.toPath());
+		var buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		// gzip writes its magic number little endian too
+		if (bytes.length >= 2 && (buffer.getShort(0) & 0xffff) == gzip_magic) {
+			try (var in = new GZIPInputStream(new ByteArrayInputStream(bytes), 1 << 16)) {
+				bytes = in.readAllBytes();
+			}
+			buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		if (bytes.length >= 8 && buffer.getInt(0) == BinaryLogSink.file_magic) {
+			return readBinary(buffer);
+		}
+		return readText(bytes);
+	}
+
+	/**
+	 * Reads binary records as written by BinaryLogSink
+	 */
+	private static FlightTrace readBinary(ByteBuffer buffer) throws IOException {
+		buffer.position(4);
+		if (buffer.getInt() != BinaryLogSink.file_version) {
+			throw new IOException("Unsupported flight log version");
+		}
+		var sensors = new ArrayList<String>();
+		sensors.add("null");
+		FlightTrace trace = null;
+		try {
+			while (buffer.hasRemaining()) {
+				var no = buffer.getInt();
+				var from_lon = buffer.getDouble();
+				var from_lat = buffer.getDouble();
+				var angle = buffer.getShort();
+				var to_lon = buffer.getDouble();
+				var to_lat = buffer.getDouble();
+				var id = buffer.getShort();
+				// a new sensor location follows its first use
+				if (id == sensors.size()) {
+					var location = new byte[buffer.getShort()];
+					buffer.get(location);
+					sensors.add(new String(location, StandardCharsets.UTF_8));
+				} else if (id < 0 || id > sensors.size()) {
+					throw new IOException("Unknown sensor number " + id + " in move " + no);
+				}
+				trace = add(trace, no, from_lon, from_lat, angle, to_lon, to_lat, sensors.get(id));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Flight log ends within a move", e);
+		}
+		return nonEmpty(trace);
+	}
+
+	/**
+	 * Reads lines as written by TextLogSink
+	 */
+	private static FlightTrace readText(byte[] bytes) throws IOException {
+		FlightTrace trace = null;
+		var start = 0;
+		while (start < bytes.length) {
+			var end = start;
+			while (end < bytes.length && bytes[end] != '\n') {
+				end++;
+			}
+			// allow lines ended by \r\n
+			var line_end = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+			if (line_end > start) {
+				var fields = new String(bytes, start, line_end - start, StandardCharsets.UTF_8).split(",", 7);
+				if (fields.length != 7) {
+					throw new IOException("Malformed flight log line: " + String.join(",", fields));
+				}
+				try {
+					trace = add(trace, Integer.parseInt(fields[0]), Double.parseDouble(fields[1]),
+							Double.parseDouble(fields[2]), Integer.parseInt(fields[3]), Double.parseDouble(fields[4]),
+							Double.parseDouble(fields[5]), fields[6]);
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed flight log line: " + String.join(",", fields), e);
+				}
+			}
+			start = end + 1;
+		}
+		return nonEmpty(trace);
+	}
+
+	/**
+	 * Adds a move read from the log to the trace, starting the trace at the first move
+	 *
+	 * @return the trace
+	 */
+	private static FlightTrace add(FlightTrace trace, int no, double from_lon, double from_lat, int angle,
+			double to_lon, double to_lat, String sensor) throws IOException {
+		if (trace == null) {
+			trace = new FlightTrace(from_lon, from_lat);
+		}
+		var moves = trace.moves();
+		if (no != moves + 1) {
+			throw new IOException("Move " + no + " follows move " + moves);
+		}
+		if (from_lon != trace.longitude(moves) || from_lat != trace.latitude(moves)) {
+			throw new IOException("Move " + no + " does not start where move " + moves + " ended");
+		}
+		trace.add(angle, to_lon, to_lat, sensor);
+		return trace;
+	}
+
+	/**
+	 * @return the trace, if the log had any moves
+	 */
+	private static FlightTrace nonEmpty(FlightTrace trace) throws IOException {
+		if (trace == null) {
+			throw new IOException("Flight log has no moves");
+		}
+		return trace;
+	}
+}
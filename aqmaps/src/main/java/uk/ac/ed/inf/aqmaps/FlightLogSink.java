@@ -0,0 +1,71 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Receives the moves of a flight one at a time as the drone makes them, e.g. to write them to
+ * a flight log file without keeping them in memory
+ *
+ * @author Michal Sadowski
+ *
+ */
+public interface FlightLogSink extends AutoCloseable {
+
+	/**
+	 * Records a move
+	 *
+	 * @param no number of the move, from 1
+	 * @param from_lon longitude before the move
+	 * @param from_lat latitude before the move
+	 * @param angle direction of the move
+	 * @param to_lon longitude after the move
+	 * @param to_lat latitude after the move
+	 * @param sensor w3w location of the sensor read after the move, or "null"
+	 * @throws IOException if the move cannot be written
+	 */
+	void write(int no, double from_lon, double from_lat, int angle, double to_lon, double to_lat, String sensor)
+			throws IOException;
+
+	/**
+	 * Writes what is left and releases the file
+	 *
+	 * @throws IOException if it cannot be written
+	 */
+	@Override
+	void close() throws IOException;
+
+	/**
+	 * @param file the file to write to
+	 * @return a sink writing the flight log as text, one line per move
+	 * @throws IOException if the file cannot be opened
+	 */
+	static FlightLogSink text(File file) throws IOException {
+		return new TextLogSink(FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+	}
+
+	/**
+	 * @param file the file to write to
+	 * @return a sink writing the flight log as gzip compressed text
+	 * @throws IOException if the file cannot be opened
+	 */
+	static FlightLogSink gzip(File file) throws IOException {
+		return new TextLogSink(Channels.newChannel(new GZIPOutputStream(new FileOutputStream(file), 1 << 16)));
+	}
+
+	/**
+	 * @param file the file to write to
+	 * @return a sink writing the flight log as fixed binary records
+	 * @throws IOException if the file cannot be opened
+	 */
+	static FlightLogSink binary(File file) throws IOException {
+		return new BinaryLogSink(FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+	}
+}
@@ -0,0 +1,159 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The result of checking a flight, or the flights of a fleet, with FlightValidator: how long the
+ * flight was, how many of the day's sensors it read and every rule it broke.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class FlightReport {
+
+	/**
+	 * The rules a flight can break
+	 */
+	public enum Kind {
+		/**
+		 * the flight does not start strictly inside the confinement area and outside the no fly zones
+		 */
+		BAD_START,
+		/**
+		 * the angle of a move is not a multiple of 10 from 0 to 350
+		 */
+		BAD_ANGLE,
+		/**
+		 * a move does not end one move length away in the direction of its angle
+		 */
+		BAD_MOVE,
+		/**
+		 * a move crosses the confinement area boundary or a no fly zone
+		 */
+		CROSSES_OBSTACLE,
+		/**
+		 * the flight has more moves than allowed
+		 */
+		TOO_MANY_MOVES,
+		/**
+		 * a move names a sensor which is not one of the day's sensors
+		 */
+		UNKNOWN_SENSOR,
+		/**
+		 * a move names a sensor which is not in range at its end
+		 */
+		OUT_OF_RANGE,
+		/**
+		 * one of the day's sensors is never read
+		 */
+		MISSED_SENSOR,
+		/**
+		 * the flight does not end close enough to its start
+		 */
+		NOT_RETURNED
+	}
+
+	/**
+	 * A broken rule
+	 */
+	public static class Violation {
+		public final Kind kind;
+		// number of the drone of a fleet, from 1, or 0 for a single drone or the fleet as a whole
+		public final int drone;
+		// number of the move, from 1, or 0 for the flight as a whole
+		public final int move;
+		public final String detail;
+
+		Violation(Kind kind, int drone, int move, String detail) {
+			this.kind = kind;
+			this.drone = drone;
+			this.move = move;
+			this.detail = detail;
+		}
+
+		@Override
+		public String toString() {
+			return kind + (drone > 0 ? " by drone " + drone : "") + (move > 0 ? " at move " + move : "") + ": "
+					+ detail;
+		}
+	}
+
+	private final int moves;
+	private final int sensors;
+	private final int sensors_read;
+	private final ArrayList<Violation> violations;
+
+	FlightReport(int moves, int sensors, int sensors_read, ArrayList<Violation> violations) {
+		this.moves = moves;
+		this.sensors = sensors;
+		this.sensors_read = sensors_read;
+		this.violations = violations;
+	}
+
+	/**
+	 * @return number of moves of the flight, of all the drones for a fleet
+	 */
+	public int getMoves() {
+		return moves;
+	}
+
+	/**
+	 * @return number of the day's sensors
+	 */
+	public int getSensors() {
+		return sensors;
+	}
+
+	/**
+	 * @return number of the day's sensors read in range at least once
+	 */
+	public int getSensorsRead() {
+		return sensors_read;
+	}
+
+	/**
+	 * @return the broken rules, in the order of the drones and their moves, with the ones of each
+	 *         whole flight after its moves and the missed sensors last
+	 */
+	public List<Violation> getViolations() {
+		return Collections.unmodifiableList(violations);
+	}
+
+	/**
+	 * @return true if the flight broke no rule
+	 */
+	public boolean isValid() {
+		return violations.isEmpty();
+	}
+
+	/**
+	 * Writes the report as a JSON object
+	 *
+	 * @param json where to write to
+	 * @throws IOException if it cannot be written
+	 */
+	public void writeJson(JsonWriter json) throws IOException {
+		json.beginObject();
+		json.name("moves").value(moves);
+		json.name("sensors").value(sensors);
+		json.name("sensors_read").value(sensors_read);
+		json.name("violations").beginArray();
+		for (var violation : violations) {
+			json.beginObject();
+			json.name("kind").value(violation.kind.toString());
+			if (violation.drone > 0) {
+				json.name("drone").value(violation.drone);
+			}
+			json.name("move").value(violation.move);
+			json.name("detail").value(violation.detail);
+			json.endObject();
+		}
+		json.endArray();
+		json.endObject();
+	}
+}
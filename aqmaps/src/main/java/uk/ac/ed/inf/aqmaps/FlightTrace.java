@@ -0,0 +1,172 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import com.mapbox.geojson.Point;
+
+/**
+ * The moves of a flight stored as columns of primitives. Positions are stored once each: position 0
+ * is the start and position i is where move i ends, so move i goes from position i - 1 to position i.
+ * Moves are numbered from 1, as in the flight log. Sensors are stored as numbers into a list of the
+ * sensor locations of the flight. The columns grow as moves are added.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class FlightTrace {
+
+	private double[] lon = new double[128];
+	private double[] lat = new double[128];
+	// indexed by move - 1
+	private short[] angle = new short[127];
+	// -1 for a move not followed by a reading
+	private short[] sensor = new short[127];
+	private int moves = 0;
+	private final ArrayList<String> sensors = new ArrayList<String>();
+	private final HashMap<String, Integer> sensor_ids = new HashMap<String, Integer>();
+
+	/**
+	 * @param start_lon longitude of the start
+	 * @param start_lat latitude of the start
+	 */
+	public FlightTrace(double start_lon, double start_lat) {
+		lon[0] = start_lon;
+		lat[0] = start_lat;
+	}
+
+	/**
+	 * Adds a move from the last position
+	 *
+	 * @param angle direction of the move
+	 * @param to_lon longitude after the move
+	 * @param to_lat latitude after the move
+	 * @param sensor w3w location of the sensor to read after the move, or null or "null" for none
+	 */
+	public void add(int angle, double to_lon, double to_lat, String sensor) {
+		// grow the columns when full
+		if (moves + 1 == lon.length) {
+			lon = Arrays.copyOf(lon, 2 * lon.length);
+			lat = Arrays.copyOf(lat, 2 * lat.length);
+			this.angle = Arrays.copyOf(this.angle, lon.length - 1);
+			this.sensor = Arrays.copyOf(this.sensor, lon.length - 1);
+		}
+		this.angle[moves] = (short) angle;
+		this.sensor[moves] = sensorId(sensor);
+		moves++;
+		lon[moves] = to_lon;
+		lat[moves] = to_lat;
+	}
+
+	/**
+	 * @return number of moves
+	 */
+	public int moves() {
+		return moves;
+	}
+
+	/**
+	 * @param position 0 for the start, i for the end of move i
+	 * @return longitude of the position
+	 */
+	public double longitude(int position) {
+		return lon[position];
+	}
+
+	/**
+	 * @param position 0 for the start, i for the end of move i
+	 * @return latitude of the position
+	 */
+	public double latitude(int position) {
+		return lat[position];
+	}
+
+	/**
+	 * @param move number of the move, from 1
+	 * @return direction of the move
+	 */
+	public int angle(int move) {
+		return angle[move - 1];
+	}
+
+	/**
+	 * @param move number of the move, from 1
+	 * @return w3w location of the sensor read after the move, or "null"
+	 */
+	public String sensor(int move) {
+		var id = sensor[move - 1];
+		return id < 0 ? "null" : sensors.get(id);
+	}
+
+	/**
+	 * @param move number of the move, from 1
+	 * @return whether the move is followed by a reading
+	 */
+	public boolean reads(int move) {
+		return sensor[move - 1] >= 0;
+	}
+
+	/**
+	 * Writes the moves to a flight log
+	 *
+	 * @param sink the sink to write to, not closed
+	 * @throws IOException if a move cannot be written
+	 */
+	public void writeTo(FlightLogSink sink) throws IOException {
+		for (var move = 1; move <= moves; move++) {
+			sink.write(move, lon[move - 1], lat[move - 1], angle[move - 1], lon[move], lat[move], sensor(move));
+		}
+	}
+
+	/**
+	 * Writes the positions as the geometry of a GeoJSON feature
+	 *
+	 * @param writer the writer, within a feature
+	 * @throws IOException if it cannot be written
+	 */
+	public void writeTo(GeoJsonWriter writer) throws IOException {
+		writer.lineString(lon, lat, moves + 1);
+	}
+
+	/**
+	 * Gives the positions as points, creating each point when it is got, e.g. for a GeoJSON LineString
+	 *
+	 * @return a read-only view of the start and the end of each move
+	 */
+	public List<Point> points() {
+		return new AbstractList<Point>() {
+			@Override
+			public Point get(int position) {
+				if (position < 0 || position > moves) {
+					throw new IndexOutOfBoundsException(position);
+				}
+				return Point.fromLngLat(lon[position], lat[position]);
+			}
+
+			@Override
+			public int size() {
+				return moves + 1;
+			}
+		};
+	}
+
+	/**
+	 * @return number of the sensor in the list of sensor locations, -1 for none
+	 */
+	private short sensorId(String sensor) {
+		if (sensor == null || sensor.equals("null")) {
+			return -1;
+		}
+		var id = sensor_ids.get(sensor);
+		if (id == null) {
+			id = sensors.size();
+			sensors.add(sensor);
+			sensor_ids.put(sensor, id);
+		}
+		return (short) (int) id;
+	}
+}
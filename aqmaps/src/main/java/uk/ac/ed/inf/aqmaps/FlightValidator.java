@@ -0,0 +1,165 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.mapbox.geojson.Point;
+
+/**
+ * Replays a flight move by move and checks it against the rules a drone must follow: it starts
+ * inside the confinement area, every move is one move length in one of the 36 allowed directions
+ * and crosses no obstacle, there are at most 150 moves, readings are taken only in range of the
+ * named sensor, every sensor of the day is read and the flight ends close to where it started.
+ * The flights of a fleet are checked together: each drone follows the rules of its own flight,
+ * and every sensor of the day is read by one of them.
+ *
+ * A validator holds no state of a flight, so one can check many flights from many threads at once.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class FlightValidator {
+
+	// how far in degrees the end of a move may be from where its angle leads, to allow for rounding
+	private final static double tolerance = 1e-10;
+
+	private final ObstacleIndex obstacles;
+
+	/**
+	 * @param obstacles the no fly zones of the flights to check
+	 */
+	public FlightValidator(ObstacleIndex obstacles) {
+		this.obstacles = obstacles;
+	}
+
+	/**
+	 * Checks a flight
+	 *
+	 * @param trace the moves of the flight
+	 * @param sensors a map of w3w names of the sensors of the day to their point locations
+	 * @return the report of the flight, listing every broken rule
+	 */
+	public FlightReport validate(FlightTrace trace, Map<String, Point> sensors) {
+		var violations = new ArrayList<FlightReport.Violation>();
+		var read = new HashSet<String>();
+		checkFlight(trace, 0, sensors, read, violations);
+		return report(trace.moves(), sensors, read, violations);
+	}
+
+	/**
+	 * Checks the flights of a fleet of drones sharing the sensors of a day
+	 *
+	 * @param traces the moves of each drone, in the order of the drones; null for a drone that did not fly
+	 * @param sensors a map of w3w names of the sensors of the day to their point locations
+	 * @return the report of the fleet, listing every broken rule with the number of its drone
+	 */
+	public FlightReport validate(List<FlightTrace> traces, Map<String, Point> sensors) {
+		var violations = new ArrayList<FlightReport.Violation>();
+		var read = new HashSet<String>();
+		var moves = 0;
+		for (var d = 0; d < traces.size(); d++) {
+			if (traces.get(d) != null) {
+				checkFlight(traces.get(d), d + 1, sensors, read, violations);
+				moves += traces.get(d).moves();
+			}
+		}
+		return report(moves, sensors, read, violations);
+	}
+
+	/**
+	 * Checks the rules of a single flight
+	 *
+	 * @param trace the moves of the flight
+	 * @param drone number of the drone of a fleet, from 1, or 0 for a single drone
+	 * @param sensors a map of w3w names of the sensors of the day to their point locations
+	 * @param read the sensors read in range, added to
+	 * @param violations the broken rules, added to
+	 */
+	private void checkFlight(FlightTrace trace, int drone, Map<String, Point> sensors, HashSet<String> read,
+			ArrayList<FlightReport.Violation> violations) {
+		var moves = trace.moves();
+		var start_lon = trace.longitude(0);
+		var start_lat = trace.latitude(0);
+
+		// the start must be a place the drone is allowed to be
+		if (!ObstacleIndex.strictlyInside(start_lon, start_lat) || obstacles.inNoFlyZone(start_lon, start_lat)) {
+			violations.add(new FlightReport.Violation(FlightReport.Kind.BAD_START, drone, 0,
+					"starts at " + start_lon + "," + start_lat));
+		}
+
+		for (var move = 1; move <= moves; move++) {
+			var from_lon = trace.longitude(move - 1);
+			var from_lat = trace.latitude(move - 1);
+			var to_lon = trace.longitude(move);
+			var to_lat = trace.latitude(move);
+			var angle = trace.angle(move);
+
+			// check the move lands where its angle leads, then that it crosses no obstacle
+			var allowed_angle = angle >= 0 && angle <= 350 && angle % 10 == 0;
+			if (!allowed_angle) {
+				violations.add(new FlightReport.Violation(FlightReport.Kind.BAD_ANGLE, drone, move, "angle " + angle));
+			}
+			var straight = allowed_angle && Math.abs(from_lon + Path.delta_lon[angle / 10] - to_lon) <= tolerance
+					&& Math.abs(from_lat + Path.delta_lat[angle / 10] - to_lat) <= tolerance;
+			if (allowed_angle && !straight) {
+				violations.add(new FlightReport.Violation(FlightReport.Kind.BAD_MOVE, drone, move,
+						"ends " + Path.distance(from_lon + Path.delta_lon[angle / 10],
+								from_lat + Path.delta_lat[angle / 10], to_lon, to_lat) + " from where angle "
+								+ angle + " leads"));
+			}
+			// check exactly from where the move starts to where it ends, as the raster only approximates
+			// the obstacles and assumes the move is straight
+			if (obstacles.intersects(from_lon, from_lat, to_lon, to_lat)) {
+				violations.add(new FlightReport.Violation(FlightReport.Kind.CROSSES_OBSTACLE, drone, move,
+						"from " + from_lon + "," + from_lat + " to " + to_lon + "," + to_lat));
+			}
+
+			// check the reading, if any, is of a sensor in range
+			if (trace.reads(move)) {
+				var sensor = trace.sensor(move);
+				var location = sensors.get(sensor);
+				if (location == null) {
+					violations.add(new FlightReport.Violation(FlightReport.Kind.UNKNOWN_SENSOR, drone, move, sensor));
+				} else {
+					var distance = Path.distance(to_lon, to_lat, location.longitude(), location.latitude());
+					if (distance < Path.sensor_range) {
+						read.add(sensor);
+					} else {
+						violations.add(new FlightReport.Violation(FlightReport.Kind.OUT_OF_RANGE, drone, move,
+								sensor + " is " + distance + " away"));
+					}
+				}
+			}
+		}
+
+		// then the rules of the whole flight
+		if (moves > Path.max_moves) {
+			violations.add(new FlightReport.Violation(FlightReport.Kind.TOO_MANY_MOVES, drone, 0,
+					moves + " moves of at most " + Path.max_moves));
+		}
+		var return_distance = Path.distance(trace.longitude(moves), trace.latitude(moves), start_lon, start_lat);
+		if (return_distance >= Path.return_range) {
+			violations.add(new FlightReport.Violation(FlightReport.Kind.NOT_RETURNED, drone, 0,
+					"ends " + return_distance + " from the start"));
+		}
+	}
+
+	/**
+	 * Adds the sensors no flight read to the broken rules
+	 *
+	 * @return the report
+	 */
+	private static FlightReport report(int moves, Map<String, Point> sensors, HashSet<String> read,
+			ArrayList<FlightReport.Violation> violations) {
+		// list the missed sensors in a stable order
+		for (var sensor : new TreeSet<String>(sensors.keySet())) {
+			if (!read.contains(sensor)) {
+				violations.add(new FlightReport.Violation(FlightReport.Kind.MISSED_SENSOR, 0, 0, sensor));
+			}
+		}
+		return new FlightReport(moves, sensors.size(), read.size(), violations);
+	}
+}
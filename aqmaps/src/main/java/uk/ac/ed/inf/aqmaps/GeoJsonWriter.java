@@ -0,0 +1,388 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a GeoJSON FeatureCollection one feature at a time through a buffer over a channel, so
+ * that the document is never held in memory. Geometries are written straight from coordinate
+ * arrays. Coordinates are rounded to 7 decimal places, as mapbox does, and written without
+ * trailing zeros.
+ *
+ * A feature is written by beginFeature(), one geometry, any number of properties and endFeature().
+ * The heatmap module writes its maps with it too.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class GeoJsonWriter implements AutoCloseable {
+
+	private final static long precision = 10_000_000;
+	private final static int precision_digits = 7;
+	private final static char[] hex_digits = "0123456789abcdef".toCharArray();
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+	private boolean first_feature = true;
+	private boolean first_property = true;
+	private boolean in_feature = false;
+	private boolean has_geometry = false;
+
+	/**
+	 * @param channel the channel to write to, closed with the writer
+	 * @throws IOException if the start of the document cannot be written
+	 */
+	public GeoJsonWriter(WritableByteChannel channel) throws IOException {
+		this.channel = channel;
+		put("{\"type\":\"FeatureCollection\",\"features\":[");
+	}
+
+	/**
+	 * @param file the file to write to
+	 * @return a writer of a new document in the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static GeoJsonWriter open(File file) throws IOException {
+		return new GeoJsonWriter(FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+	}
+
+	/**
+	 * Starts a feature
+	 *
+	 * @throws IOException if it cannot be written
+	 */
+	public void beginFeature() throws IOException {
+		if (in_feature) {
+			throw new IllegalStateException("Feature not ended");
+		}
+		put(first_feature ? "{\"type\":\"Feature\"," : ",{\"type\":\"Feature\",");
+		first_feature = false;
+		in_feature = true;
+		has_geometry = false;
+		first_property = true;
+	}
+
+	/**
+	 * Writes the geometry of the feature as a Point
+	 *
+	 * @param lon longitude of the point
+	 * @param lat latitude of the point
+	 * @throws IOException if it cannot be written
+	 */
+	public void point(double lon, double lat) throws IOException {
+		beginGeometry("Point");
+		position(lon, lat);
+		endGeometry();
+	}
+
+	/**
+	 * Writes the geometry of the feature as a LineString
+	 *
+	 * @param lon longitudes of the points
+	 * @param lat latitudes of the points
+	 * @param count number of points to take from the arrays
+	 * @throws IOException if it cannot be written
+	 */
+	public void lineString(double[] lon, double[] lat, int count) throws IOException {
+		beginGeometry("LineString");
+		positions(lon, lat, count);
+		endGeometry();
+	}
+
+	/**
+	 * Writes the geometry of the feature as a Polygon without holes
+	 *
+	 * @param lon longitudes of the points of the ring, the last one equal to the first
+	 * @param lat latitudes of the points of the ring
+	 * @param count number of points to take from the arrays
+	 * @throws IOException if it cannot be written
+	 */
+	public void polygon(double[] lon, double[] lat, int count) throws IOException {
+		beginGeometry("Polygon");
+		put('[');
+		positions(lon, lat, count);
+		put(']');
+		endGeometry();
+	}
+
+	/**
+	 * Writes a string property of the feature
+	 *
+	 * @param name name of the property
+	 * @param value value of the property
+	 * @throws IOException if it cannot be written
+	 */
+	public void property(String name, String value) throws IOException {
+		propertyName(name);
+		string(value);
+	}
+
+	/**
+	 * Writes a number property of the feature
+	 *
+	 * @param name name of the property
+	 * @param value value of the property, written as Double.toString does
+	 * @throws IOException if it cannot be written
+	 */
+	public void property(String name, double value) throws IOException {
+		propertyName(name);
+		put(Double.toString(value));
+	}
+
+	/**
+	 * Ends the feature
+	 *
+	 * @throws IOException if it cannot be written
+	 */
+	public void endFeature() throws IOException {
+		if (!has_geometry) {
+			throw new IllegalStateException("Feature has no geometry");
+		}
+		put(first_property ? "\"properties\":{}}" : "}}");
+		in_feature = false;
+	}
+
+	/**
+	 * Ends the document, writes what is left and closes the channel
+	 *
+	 * @throws IOException if it cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			put("]}");
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Starts the geometry of the feature
+	 */
+	private void beginGeometry(String type) throws IOException {
+		if (!in_feature || has_geometry) {
+			throw new IllegalStateException("Geometry outside a feature or written twice");
+		}
+		put("\"geometry\":{\"type\":\"");
+		put(type);
+		put("\",\"coordinates\":");
+		has_geometry = true;
+	}
+
+	/**
+	 * Ends the geometry of the feature
+	 */
+	private void endGeometry() throws IOException {
+		put("},");
+	}
+
+	/**
+	 * Writes the name of a property, starting the properties if it is the first one
+	 */
+	private void propertyName(String name) throws IOException {
+		if (!has_geometry) {
+			throw new IllegalStateException("Properties before the geometry");
+		}
+		put(first_property ? "\"properties\":{" : ",");
+		first_property = false;
+		string(name);
+		put(':');
+	}
+
+	/**
+	 * Writes an array of positions
+	 */
+	private void positions(double[] lon, double[] lat, int count) throws IOException {
+		put('[');
+		for (var i = 0; i < count; i++) {
+			if (i > 0) {
+				put(',');
+			}
+			position(lon[i], lat[i]);
+		}
+		put(']');
+	}
+
+	/**
+	 * Writes a position
+	 */
+	private void position(double lon, double lat) throws IOException {
+		put('[');
+		coordinate(lon);
+		put(',');
+		coordinate(lat);
+		put(']');
+	}
+
+	/**
+	 * Writes a coordinate rounded to 7 decimal places, digit by digit
+	 */
+	private void coordinate(double value) throws IOException {
+		// values too large to round are written as they are, as mapbox does
+		if (Math.abs(value) >= 10_000_000) {
+			put(Double.toString(Math.abs(value) < Long.MAX_VALUE / precision ? Math.round(value * precision)
+					/ (double) precision : value));
+			return;
+		}
+		var rounded = Math.round(value * precision);
+		var magnitude = Math.abs(rounded);
+		// write the values Double.toString would write in scientific notation the same way
+		if (magnitude != 0 && magnitude < precision / 1000) {
+			put(Double.toString(rounded / (double) precision));
+			return;
+		}
+		if (buffer.remaining() < 32) {
+			flush();
+		}
+		if (rounded < 0) {
+			buffer.put((byte) '-');
+		}
+		digits(magnitude / precision, 1);
+		buffer.put((byte) '.');
+		var fraction = magnitude % precision;
+		var digits = precision_digits;
+		// at least one decimal digit, as in 1.0
+		while (digits > 1 && fraction % 10 == 0) {
+			fraction /= 10;
+			digits--;
+		}
+		digits(fraction, digits);
+	}
+
+	/**
+	 * Writes a non-negative number with at least a number of digits, padding it with zeros
+	 */
+	private void digits(long value, int min_digits) {
+		var count = 1;
+		for (var rest = value / 10; rest > 0; rest /= 10) {
+			count++;
+		}
+		count = Math.max(count, min_digits);
+		var end = buffer.position() + count;
+		for (var i = end - 1; i >= buffer.position(); i--) {
+			buffer.put(i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(end);
+	}
+
+	/**
+	 * Writes a JSON string, escaping the characters gson escapes
+	 */
+	private void string(String value) throws IOException {
+		put('"');
+		for (var i = 0; i < value.length(); i++) {
+			var c = value.charAt(i);
+			switch (c) {
+			case '"':
+				put("\\\"");
+				break;
+			case '\\':
+				put("\\\\");
+				break;
+			case '\n':
+				put("\\n");
+				break;
+			case '\r':
+				put("\\r");
+				break;
+			case '\t':
+				put("\\t");
+				break;
+			case '\b':
+				put("\\b");
+				break;
+			case '\f':
+				put("\\f");
+				break;
+			case '<':
+			case '>':
+			case '&':
+			case '=':
+			case '\'':
+			case '\u2028':
+			case '\u2029':
+				unicodeEscape(c);
+				break;
+			default:
+				if (c < 0x20) {
+					unicodeEscape(c);
+				} else if (Character.isHighSurrogate(c) && i + 1 < value.length()) {
+					// a pair of surrogates is one character in UTF-8
+					put(value.substring(i, i + 2).getBytes(StandardCharsets.UTF_8));
+					i++;
+				} else {
+					put(c);
+				}
+			}
+		}
+		put('"');
+	}
+
+	/**
+	 * Writes a character as \\uXXXX
+	 */
+	private void unicodeEscape(char c) throws IOException {
+		put("\\u");
+		for (var shift = 12; shift >= 0; shift -= 4) {
+			put(hex_digits[(c >> shift) & 0xf]);
+		}
+	}
+
+	/**
+	 * Writes a string without escaping
+	 */
+	private void put(String text) throws IOException {
+		for (var i = 0; i < text.length(); i++) {
+			put(text.charAt(i));
+		}
+	}
+
+	/**
+	 * Writes a character in UTF-8
+	 */
+	private void put(char c) throws IOException {
+		if (buffer.remaining() < 3) {
+			flush();
+		}
+		if (c < 0x80) {
+			buffer.put((byte) c);
+		} else if (c < 0x800) {
+			buffer.put((byte) (0xc0 | (c >> 6))).put((byte) (0x80 | (c & 0x3f)));
+		} else if (Character.isSurrogate(c)) {
+			// not part of a pair
+			buffer.put((byte) '?');
+		} else {
+			buffer.put((byte) (0xe0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3f)))
+					.put((byte) (0x80 | (c & 0x3f)));
+		}
+	}
+
+	/**
+	 * Writes bytes as they are
+	 */
+	private void put(byte[] bytes) throws IOException {
+		if (buffer.remaining() < bytes.length) {
+			flush();
+		}
+		buffer.put(bytes);
+	}
+
+	/**
+	 * Writes the buffer to the channel and empties it
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
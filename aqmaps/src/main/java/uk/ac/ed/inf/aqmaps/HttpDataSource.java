@@ -0,0 +1,162 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Downloads the documents from a server at localhost. Requests are sent asynchronously; at most
+ * a limited number of requests of all sources are in flight at once. Bodies are parsed on threads
+ * of their own while they arrive, as parsing blocks until the next part of the body is received.
+ * 
+ * Request settings are read from system properties:
+ * -Daqmaps.http.concurrency=[maximum number of requests in flight, 16 by default]
+ * -Daqmaps.http.timeout.ms=[time to wait for a connection and for each response, 10000 by default]
+ * 
+ * @author Michal Sadowski
+ *
+ */
+public class HttpDataSource implements DataSource {
+	private static final Duration timeout = Duration.ofMillis(Long.getLong("aqmaps.http.timeout.ms", 10000));
+	private static final HttpClient client = HttpClient.newBuilder().connectTimeout(timeout).build();
+	private static final int max_in_flight = Integer.getInteger("aqmaps.http.concurrency", 16);
+	// requests waiting for a request in flight to finish, and the number in flight, guarded by the queue
+	private static final ArrayDeque<Runnable> waiting = new ArrayDeque<Runnable>();
+	private static int in_flight = 0;
+	private static final ExecutorService parsers = Executors.newCachedThreadPool(runnable -> {
+		var thread = new Thread(runnable, "aqmaps-parser");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final int port;
+
+	/**
+	 * @param port port at which the server is working
+	 */
+	public HttpDataSource(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Starts a request to the server, as soon as fewer than the maximum number of requests are in flight
+	 * 
+	 * @param url_params the parameters of the request
+	 * @param parser parses the body of the response
+	 * @return the parsed body, or a ServerException if the request fails, is not answered with
+	 *         status 200 or cannot be parsed
+	 */
+	@Override
+	public <T> CompletableFuture<T> fetch(String url_params, DocumentParser<T> parser) {
+		// Compose the URL
+		var url_string = location(url_params);
+		
+		// Create a request
+		HttpRequest request;
+		try {
+			request = HttpRequest.newBuilder()
+					.uri(URI.create(url_string))
+					.timeout(timeout)
+					.build();
+		} catch (IllegalArgumentException e) {
+			return CompletableFuture.failedFuture(new ServerException("Invalid URL " + url_string, e));
+		}
+
+		// Send the request when allowed
+		var body = new CompletableFuture<T>();
+		whenAllowed(() -> {
+			CompletableFuture<HttpResponse<InputStream>> response;
+			try {
+				response = client.sendAsync(request, BodyHandlers.ofInputStream());
+			} catch (RuntimeException e) {
+				response = CompletableFuture.failedFuture(e);
+			}
+			// Deal with the response, which completes once the headers are received
+			response.whenComplete((answer, e) -> {
+				if (e != null) {
+					finished();
+					var cause = e instanceof CompletionException ? e.getCause() : e;
+					body.completeExceptionally(new ServerException("Request to " + url_string + " failed", cause));
+				} else if (answer.statusCode() != 200) {
+					finished();
+					close(answer.body());
+					body.completeExceptionally(new ServerException(
+							"Received " + answer.statusCode() + " from " + url_string, answer.statusCode()));
+				} else {
+					parsers.execute(() -> parse(answer.body(), parser, url_string, body));
+				}
+			});
+		});
+		return body;
+	}
+
+	/**
+	 * Parses the body of a response and lets the next request run
+	 */
+	private static <T> void parse(InputStream in, DocumentParser<T> parser, String url_string,
+			CompletableFuture<T> body) {
+		try (in) {
+			body.complete(parser.parse(in));
+		} catch (IOException | RuntimeException e) {
+			body.completeExceptionally(new ServerException("Reading the response from " + url_string + " failed", e));
+		} finally {
+			finished();
+		}
+	}
+
+	/**
+	 * Closes the body of a response that is not read
+	 */
+	private static void close(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			// the connection is dropped either way
+		}
+	}
+
+	@Override
+	public String location(String url_params) {
+		return "http://localhost:" + port + url_params;
+	}
+
+	/**
+	 * Runs a request now if fewer than the maximum number are in flight, or queues it otherwise
+	 */
+	private static void whenAllowed(Runnable send) {
+		synchronized (waiting) {
+			if (in_flight >= max_in_flight) {
+				waiting.add(send);
+				return;
+			}
+			in_flight++;
+		}
+		send.run();
+	}
+
+	/**
+	 * Lets the next queued request run after a request finished
+	 */
+	private static void finished() {
+		Runnable next;
+		synchronized (waiting) {
+			next = waiting.poll();
+			if (next == null) {
+				in_flight--;
+			}
+		}
+		if (next != null) {
+			next.run();
+		}
+	}
+}
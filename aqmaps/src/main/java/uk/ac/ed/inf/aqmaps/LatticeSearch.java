@@ -0,0 +1,264 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Arrays;
+
+/**
+ * Finds the shortest sequence of moves between two locations with an A* search over the lattice
+ * of locations reachable with moves of fixed length in the 36 allowed directions. Locations closer
+ * to each other than a fraction of the move length are treated as the same search state. Each
+ * cell keeps the fewest moves it has been reached with, and is opened again when reached with
+ * fewer, so the sequence found has the fewest moves over the lattice of cells.
+ *
+ * An instance keeps its buffers between searches, so it must not be shared between threads.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class LatticeSearch {
+
+	// size of the cells used to detect already visited locations
+	private final static double cell_size = Path.move_length / 10;
+	// maximum number of states to generate before giving up
+	private final static int max_states = 500_000;
+
+	private final ObstacleIndex obstacles;
+
+	// search states stored as columns
+	private double[] lon = new double[1024];
+	private double[] lat = new double[1024];
+	private int[] moves = new int[1024];
+	private int[] parent = new int[1024];
+	private int[] angle = new int[1024];
+	private int state_count;
+
+	// binary heap of states ordered by estimated total number of moves
+	private int[] heap = new int[1024];
+	private double[] heap_key = new double[1024];
+	private int heap_size;
+
+	// open addressing map of visited cells to the fewest moves they have been reached with
+	private long[] visited = new long[1 << 16];
+	private int[] visited_moves = new int[1 << 16];
+	private int visited_count;
+	private final static long empty = Long.MIN_VALUE;
+
+	/**
+	 * @param obstacles the obstacles to avoid
+	 */
+	public LatticeSearch(ObstacleIndex obstacles) {
+		this.obstacles = obstacles;
+	}
+
+	/**
+	 * Searches for the fewest moves taking the drone from the start to within proximity of the
+	 * destination. At least one move is always made. Of the ways with the fewest moves, the one
+	 * ending closest to the destination is returned.
+	 *
+	 * @param from_lon longitude of the start
+	 * @param from_lat latitude of the start
+	 * @param to_lon longitude of the destination
+	 * @param to_lat latitude of the destination
+	 * @param proximity the maximum distance from the destination
+	 * @param moves_left maximum number of moves to make
+	 * @return angles of the moves, or null if the destination cannot be reached
+	 */
+	public int[] search(double from_lon, double from_lat, double to_lon, double to_lat, double proximity,
+			int moves_left) {
+		state_count = 0;
+		heap_size = 0;
+		visited_count = 0;
+		Arrays.fill(visited, empty);
+
+		push(addState(from_lon, from_lat, 0, -1, -1), heuristic(from_lon, from_lat, to_lon, to_lat, proximity));
+		visit(from_lon, from_lat, 0);
+
+		// the final state, chosen among the ones with the fewest moves as the closest to the destination,
+		// so that the next leg starts near where it was costed from
+		var best = -1;
+		var best_distance = Double.POSITIVE_INFINITY;
+
+		while (heap_size > 0) {
+			// no state left in the heap can end with as few moves as the best one
+			if (best >= 0 && heap_key[0] > moves[best]) {
+				break;
+			}
+			var state = pop();
+			var state_lon = lon[state];
+			var state_lat = lat[state];
+			var distance = Path.distance(state_lon, state_lat, to_lon, to_lat);
+			if (moves[state] > 0 && distance < proximity) {
+				if (best < 0 || distance < best_distance) {
+					best = state;
+					best_distance = distance;
+				}
+				continue;
+			}
+			// skip a state whose cell has been reached with fewer moves since it was pushed
+			if (moves[state] > visitedMoves(state_lon, state_lat)) {
+				continue;
+			}
+			if (moves[state] >= moves_left || state_count >= max_states
+					|| (best >= 0 && moves[state] + 1 > moves[best])) {
+				continue;
+			}
+
+			// expand in every allowed direction
+			for (var i = 0; i < 36; i++) {
+				var next_lon = state_lon + Path.delta_lon[i];
+				var next_lat = state_lat + Path.delta_lat[i];
+				// a forbidden move must not claim its cell, as a later allowed move may lead there
+				if (obstacles.forbidden(state_lon, state_lat, i * 10)) {
+					continue;
+				}
+				// the destination may be reached from a visited cell, so check it before the dedup
+				var reached = Path.distance(next_lon, next_lat, to_lon, to_lat) < proximity;
+				if (!visit(next_lon, next_lat, moves[state] + 1) && !reached) {
+					continue;
+				}
+				var next = addState(next_lon, next_lat, moves[state] + 1, state, i * 10);
+				push(next, moves[next] + heuristic(next_lon, next_lat, to_lon, to_lat, proximity));
+			}
+		}
+		return best >= 0 ? angles(best) : null;
+	}
+
+	/**
+	 * Lower bound on the number of moves left, as each move covers at most the move length
+	 */
+	private static double heuristic(double lon, double lat, double to_lon, double to_lat, double proximity) {
+		return Math.max(0, Path.distance(lon, lat, to_lon, to_lat) - proximity) / Path.move_length;
+	}
+
+	/**
+	 * Follows the parents of a state back to the start
+	 *
+	 * @param state the final state
+	 * @return angles of the moves leading to the state
+	 */
+	private int[] angles(int state) {
+		var result = new int[moves[state]];
+		for (var s = state; parent[s] >= 0; s = parent[s]) {
+			result[moves[s] - 1] = angle[s];
+		}
+		return result;
+	}
+
+	private int addState(double state_lon, double state_lat, int state_moves, int state_parent, int state_angle) {
+		if (state_count == lon.length) {
+			var capacity = 2 * lon.length;
+			lon = Arrays.copyOf(lon, capacity);
+			lat = Arrays.copyOf(lat, capacity);
+			moves = Arrays.copyOf(moves, capacity);
+			parent = Arrays.copyOf(parent, capacity);
+			angle = Arrays.copyOf(angle, capacity);
+		}
+		lon[state_count] = state_lon;
+		lat[state_count] = state_lat;
+		moves[state_count] = state_moves;
+		parent[state_count] = state_parent;
+		angle[state_count] = state_angle;
+		return state_count++;
+	}
+
+	/**
+	 * Marks the cell containing a location as visited with a number of moves
+	 *
+	 * @return true if the cell has not been visited before with as few moves
+	 */
+	private boolean visit(double cell_lon, double cell_lat, int cell_moves) {
+		if (2 * (visited_count + 1) > visited.length) {
+			var old = visited;
+			var old_moves = visited_moves;
+			visited = new long[2 * old.length];
+			visited_moves = new int[2 * old.length];
+			Arrays.fill(visited, empty);
+			visited_count = 0;
+			for (var i = 0; i < old.length; i++) {
+				if (old[i] != empty) {
+					insert(old[i], old_moves[i]);
+				}
+			}
+		}
+		return insert(cellKey(cell_lon, cell_lat), cell_moves);
+	}
+
+	/**
+	 * @return the fewest moves the cell containing a location has been reached with
+	 */
+	private int visitedMoves(double cell_lon, double cell_lat) {
+		var slot = slot(cellKey(cell_lon, cell_lat));
+		return visited[slot] == empty ? Integer.MAX_VALUE : visited_moves[slot];
+	}
+
+	private static long cellKey(double cell_lon, double cell_lat) {
+		// the cells are small, so the indices of all cells within the confinement area fit in 32 bits each
+		return (Math.round(cell_lon / cell_size) << 32) ^ (Math.round(cell_lat / cell_size) & 0xffffffffL);
+	}
+
+	/**
+	 * @return the slot holding the key, or the empty slot where it would be inserted
+	 */
+	private int slot(long key) {
+		var mask = visited.length - 1;
+		var slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while (visited[slot] != empty && visited[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private boolean insert(long key, int cell_moves) {
+		var slot = slot(key);
+		if (visited[slot] == key) {
+			if (visited_moves[slot] <= cell_moves) {
+				return false;
+			}
+		} else {
+			visited[slot] = key;
+			visited_count++;
+		}
+		visited_moves[slot] = cell_moves;
+		return true;
+	}
+
+	private void push(int state, double key) {
+		if (heap_size == heap.length) {
+			heap = Arrays.copyOf(heap, 2 * heap.length);
+			heap_key = Arrays.copyOf(heap_key, 2 * heap_key.length);
+		}
+		var i = heap_size++;
+		while (i > 0) {
+			var up = (i - 1) / 2;
+			if (heap_key[up] <= key) {
+				break;
+			}
+			heap[i] = heap[up];
+			heap_key[i] = heap_key[up];
+			i = up;
+		}
+		heap[i] = state;
+		heap_key[i] = key;
+	}
+
+	private int pop() {
+		var top = heap[0];
+		var state = heap[--heap_size];
+		var key = heap_key[heap_size];
+		var i = 0;
+		while (2 * i + 1 < heap_size) {
+			var child = 2 * i + 1;
+			if (child + 1 < heap_size && heap_key[child + 1] < heap_key[child]) {
+				child++;
+			}
+			if (key <= heap_key[child]) {
+				break;
+			}
+			heap[i] = heap[child];
+			heap_key[i] = heap_key[child];
+			i = child;
+		}
+		heap[i] = state;
+		heap_key[i] = key;
+		return top;
+	}
+}
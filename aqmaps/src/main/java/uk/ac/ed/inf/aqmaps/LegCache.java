@@ -0,0 +1,241 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A bounded least recently used cache of legs, i.e. the angles of the moves between a start location
+ * and a destination. Starts are rounded to a small grid, so a leg planned from one location is offered
+ * for locations nearby; the caller decides whether it is still valid from there.
+ *
+ * The cache can be saved to a file and loaded in a later run with the same no fly zones.
+ *
+ * Only the deterministic legs are cached: Path plans the legs of its randomised candidates without
+ * the cache, so that different seeds still explore different ways. The cache is shared by the
+ * threads building a cost matrix and planning candidates, so it is locked only to look legs up and
+ * store them; checking a leg against the obstacles happens outside the lock.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class LegCache {
+
+	private final static int file_magic = 0x4c454743; // "LEGC"
+	private final static int file_version = 1;
+
+	// size of the grid the start locations are rounded to
+	private final static double quantum = Path.move_length / 15;
+
+	private final int capacity;
+	private final long zones_fingerprint;
+	private final LinkedHashMap<Key, int[]> legs;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param capacity maximum number of legs to keep
+	 * @param zones_fingerprint fingerprint of the no fly zones the legs are planned around
+	 */
+	public LegCache(int capacity, long zones_fingerprint) {
+		this.capacity = capacity;
+		this.zones_fingerprint = zones_fingerprint;
+		// access order makes the eldest entry the least recently used one
+		this.legs = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+				return size() > LegCache.this.capacity;
+			}
+		};
+	}
+
+	/**
+	 * Looks up a leg planned from near the start location. A leg rejected by the validity check
+	 * is removed and counted as a miss.
+	 *
+	 * @param from_lon longitude of the start
+	 * @param from_lat latitude of the start
+	 * @param to_lon longitude of the destination
+	 * @param to_lat latitude of the destination
+	 * @param proximity the maximum distance from the destination
+	 * @param mode the planner mode the leg was planned with
+	 * @param valid checks whether the angles of a cached leg can be followed from the start
+	 * @return angles of the moves, or null if there is no valid leg
+	 */
+	public int[] get(double from_lon, double from_lat, double to_lon, double to_lat, double proximity,
+			PlannerMode mode, Predicate<int[]> valid) {
+		var key = new Key(from_lon, from_lat, to_lon, to_lat, proximity, mode);
+		int[] angles;
+		synchronized (this) {
+			angles = legs.get(key);
+		}
+		// replaying the leg is the slow part, so it is done without holding the lock
+		var is_valid = angles != null && valid.test(angles);
+		synchronized (this) {
+			if (is_valid) {
+				hits++;
+				return angles;
+			}
+			if (angles != null) {
+				// only if another thread has not replaced it meanwhile
+				legs.remove(key, angles);
+			}
+			misses++;
+		}
+		return null;
+	}
+
+	/**
+	 * Stores a leg
+	 *
+	 * @param from_lon longitude of the start
+	 * @param from_lat latitude of the start
+	 * @param to_lon longitude of the destination
+	 * @param to_lat latitude of the destination
+	 * @param proximity the maximum distance from the destination
+	 * @param mode the planner mode the leg was planned with
+	 * @param angles angles of the moves
+	 */
+	public synchronized void put(double from_lon, double from_lat, double to_lon, double to_lat, double proximity,
+			PlannerMode mode, int[] angles) {
+		legs.put(new Key(from_lon, from_lat, to_lon, to_lat, proximity, mode), angles);
+	}
+
+	/**
+	 * @return number of lookups that returned a leg
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups that did not return a leg
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of legs stored
+	 */
+	public synchronized int size() {
+		return legs.size();
+	}
+
+	/**
+	 * Saves the legs to a file, replacing it atomically
+	 *
+	 * @param file the file to save to
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void save(File file) throws IOException {
+		AtomicFile.write(file, stream -> {
+			var out = new DataOutputStream(stream);
+			out.writeInt(file_magic);
+			out.writeInt(file_version);
+			out.writeLong(zones_fingerprint);
+			out.writeInt(legs.size());
+			// least recently used first, so that loading keeps the order
+			for (var entry : legs.entrySet()) {
+				var key = entry.getKey();
+				out.writeLong(key.from_lon);
+				out.writeLong(key.from_lat);
+				out.writeLong(key.to_lon);
+				out.writeLong(key.to_lat);
+				out.writeDouble(key.proximity);
+				out.writeByte(key.mode);
+				out.writeShort(entry.getValue().length);
+				for (var angle : entry.getValue()) {
+					out.writeByte(angle / 10);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Loads the legs saved to a file. The file is ignored if it does not exist or was saved
+	 * for different no fly zones.
+	 *
+	 * @param file the file to load from
+	 * @param capacity maximum number of legs to keep
+	 * @param zones_fingerprint fingerprint of the current no fly zones
+	 * @return the cache
+	 * @throws IOException if the file cannot be read
+	 */
+	public static LegCache load(File file, int capacity, long zones_fingerprint) throws IOException {
+		var cache = new LegCache(capacity, zones_fingerprint);
+		if (!file.exists()) {
+			return cache;
+		}
+		try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != file_magic || in.readInt() != file_version || in.readLong() != zones_fingerprint) {
+				return cache;
+			}
+			var count = in.readInt();
+			for (var i = 0; i < count; i++) {
+				var key = new Key(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readDouble(),
+						in.readByte());
+				var angles = new int[in.readShort()];
+				for (var j = 0; j < angles.length; j++) {
+					angles[j] = in.readByte() * 10;
+				}
+				cache.legs.put(key, angles);
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Identifies a leg by the rounded start, the destination, the proximity and the planner mode
+	 */
+	private static class Key {
+		final long from_lon;
+		final long from_lat;
+		final long to_lon;
+		final long to_lat;
+		final double proximity;
+		final int mode;
+
+		Key(double from_lon, double from_lat, double to_lon, double to_lat, double proximity, PlannerMode mode) {
+			this(Math.round(from_lon / quantum), Math.round(from_lat / quantum), Double.doubleToLongBits(to_lon),
+					Double.doubleToLongBits(to_lat), proximity, mode.ordinal());
+		}
+
+		Key(long from_lon, long from_lat, long to_lon, long to_lat, double proximity, int mode) {
+			this.from_lon = from_lon;
+			this.from_lat = from_lat;
+			this.to_lon = to_lon;
+			this.to_lat = to_lat;
+			this.proximity = proximity;
+			this.mode = mode;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			var other = (Key) o;
+			return from_lon == other.from_lon && from_lat == other.from_lat && to_lon == other.to_lon
+					&& to_lat == other.to_lat && proximity == other.proximity && mode == other.mode;
+		}
+
+		@Override
+		public int hashCode() {
+			var hash = Long.hashCode(from_lon);
+			hash = 31 * hash + Long.hashCode(from_lat);
+			hash = 31 * hash + Long.hashCode(to_lon);
+			hash = 31 * hash + Long.hashCode(to_lat);
+			hash = 31 * hash + Double.hashCode(proximity);
+			return 31 * hash + mode;
+		}
+	}
+}
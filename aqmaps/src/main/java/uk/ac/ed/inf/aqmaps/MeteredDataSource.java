@@ -0,0 +1,97 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Records the requests made to another data source in the metrics of their class of endpoints:
+ * the time from a request to its parsed document, the bytes read and the status of the answer.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class MeteredDataSource implements DataSource {
+
+	private final DataSource source;
+	private final Metrics metrics;
+
+	/**
+	 * @param source the data source to get the documents from
+	 * @param metrics the registry to record the requests in
+	 */
+	public MeteredDataSource(DataSource source, Metrics metrics) {
+		this.source = source;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public <T> CompletableFuture<T> fetch(String url_params, DocumentParser<T> parser) {
+		var endpoint = metrics.forRequest(url_params);
+		var start = System.nanoTime();
+		// the parser is only called for a document that was got
+		var counter = new long[] { -1 };
+		return source.<T>fetch(url_params, in -> {
+			var counted = new CountingInputStream(in);
+			try {
+				return parser.parse(counted);
+			} finally {
+				counter[0] = counted.count;
+			}
+		}).whenComplete((document, e) -> {
+			var bytes = Math.max(0, counter[0]);
+			var status = 200;
+			if (e != null) {
+				var cause = e instanceof CompletionException ? e.getCause() : e;
+				// a document that was got but could not be parsed was answered with 200
+				if (counter[0] < 0) {
+					status = cause instanceof ServerException ? ((ServerException) cause).getStatus() : -1;
+				}
+			}
+			endpoint.recordRequest(System.nanoTime() - start, bytes, status, e != null);
+		});
+	}
+
+	@Override
+	public String location(String url_params) {
+		return source.location(url_params);
+	}
+
+	/**
+	 * Counts the bytes read through it
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			var b = super.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			var n = super.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			var skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The registry of the metrics of the requests made in this process, one EndpointMetrics for each
+ * class of endpoints of the server: maps, words and buildings. The class of a request is the first
+ * part of its path. The metrics can be saved as JSON, and are registered as MBeans named
+ * uk.ac.ed.inf.aqmaps:type=Endpoint,name=[class] when -Daqmaps.metrics.jmx=true.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class Metrics {
+
+	private static final Metrics registry = new Metrics(Boolean.getBoolean("aqmaps.metrics.jmx"));
+
+	private final boolean jmx;
+	private final ConcurrentHashMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<String, EndpointMetrics>();
+
+	/**
+	 * @param jmx whether to register the metrics of each class of endpoints as an MBean
+	 */
+	private Metrics(boolean jmx) {
+		this.jmx = jmx;
+		// the classes of endpoints used by Server, so that they are listed even when unused
+		for (var name : new String[] { "maps", "words", "buildings" }) {
+			endpoint(name);
+		}
+	}
+
+	/**
+	 * @return the registry of this process
+	 */
+	public static Metrics get() {
+		return registry;
+	}
+
+	/**
+	 * @param url_params the path of a document on the server, e.g. /buildings/no-fly-zones.geojson
+	 * @return the metrics of the class of endpoints the document belongs to
+	 */
+	public EndpointMetrics forRequest(String url_params) {
+		var start = url_params.startsWith("/") ? 1 : 0;
+		var end = url_params.indexOf('/', start);
+		return endpoint(end < 0 ? url_params.substring(start) : url_params.substring(start, end));
+	}
+
+	/**
+	 * @param name name of a class of endpoints
+	 * @return its metrics, created on first use
+	 */
+	public EndpointMetrics endpoint(String name) {
+		return endpoints.computeIfAbsent(name, key -> {
+			var metrics = new EndpointMetrics(key);
+			if (jmx) {
+				try {
+					ManagementFactory.getPlatformMBeanServer().registerMBean(metrics,
+							new ObjectName("uk.ac.ed.inf.aqmaps:type=Endpoint,name=" + ObjectName.quote(key)));
+				} catch (JMException e) {
+					System.out.println("An error occurred:");
+					e.printStackTrace();
+				}
+			}
+			return metrics;
+		});
+	}
+
+	/**
+	 * Writes the metrics of all classes of endpoints as a JSON object keyed by their names
+	 *
+	 * @param out where to write to
+	 * @throws IOException if it cannot be written
+	 */
+	public void writeJson(Writer out) throws IOException {
+		var json = new JsonWriter(out);
+		json.setIndent("  ");
+		json.beginObject();
+		for (var name : new TreeSet<String>(endpoints.keySet())) {
+			var metrics = endpoints.get(name);
+			json.name(name).beginObject();
+			json.name("requests").value(metrics.getRequests());
+			json.name("errors").value(metrics.getErrors());
+			json.name("bytes").value(metrics.getBytes());
+			json.name("cache_hits").value(metrics.getCacheHits());
+			json.name("mean_latency_ms").value(metrics.getMeanLatencyMillis());
+			json.name("latency_histogram_ms").beginObject();
+			var bounds = metrics.getLatencyBucketsMillis();
+			var counts = metrics.getLatencyHistogram();
+			for (var i = 0; i < bounds.length; i++) {
+				json.name(bounds[i] == Long.MAX_VALUE ? "inf" : "<" + bounds[i]).value(counts[i]);
+			}
+			json.endObject();
+			json.name("statuses").beginObject();
+			for (var status : metrics.getStatusCounts().entrySet()) {
+				json.name(status.getKey().toString()).value(status.getValue());
+			}
+			json.endObject();
+			json.endObject();
+		}
+		json.endObject();
+		json.flush();
+	}
+
+	/**
+	 * Saves the metrics as JSON to a file, replacing it atomically
+	 *
+	 * @param file the file to save to
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(File file) throws IOException {
+		AtomicFile.write(file, out -> writeJson(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+	}
+}
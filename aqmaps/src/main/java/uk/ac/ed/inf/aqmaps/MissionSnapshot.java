@@ -0,0 +1,336 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.ByteOrderValues;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+
+import com.mapbox.geojson.Point;
+
+/**
+ * Everything a day's mission is planned and flown from, i.e. the sensors with their points and
+ * readings and the no fly zones, in a binary file that is mapped into memory when loaded. The
+ * values are read from the mapped file when asked for.
+ *
+ * The file is little endian and laid out as:
+ * header: magic "AQMS", version, day, month, year, number of sensors n, number of no fly zones z,
+ *         length of the strings (8 ints)
+ * columns: longitude[n], latitude[n], battery[n], reading[n] (doubles, reading NaN if not a number)
+ * strings: offset[2n + 1] into the strings (ints), then the UTF-8 strings of the n locations and of
+ *          the n readings as given in the document, empty for the readings that are numbers
+ * no fly zones: length[z] (ints), then the polygons as WKB
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class MissionSnapshot {
+
+	private final static int file_magic = 0x41514d53; // "AQMS"
+	private final static int file_version = 1;
+	private final static int header_size = 8 * Integer.BYTES;
+
+	private static final GeometryFactory gf = new GeometryFactory();
+
+	private final ByteBuffer buffer;
+	private final int size;
+	private final int zone_count;
+	// offsets of the sections of the file
+	private final int columns_start;
+	private final int offsets_start;
+	private final int strings_start;
+	private final int zone_lengths_start;
+	private final int zones_start;
+
+	/**
+	 * @param buffer the contents of a snapshot file, little endian
+	 * @throws IOException if it is not a snapshot of this version
+	 */
+	private MissionSnapshot(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.limit() < header_size || buffer.getInt(0) != file_magic || buffer.getInt(4) != file_version) {
+			throw new IOException("Not a mission snapshot of version " + file_version);
+		}
+		size = buffer.getInt(20);
+		zone_count = buffer.getInt(24);
+		var strings_length = buffer.getInt(28);
+		columns_start = header_size;
+		offsets_start = columns_start + 4 * size * Double.BYTES;
+		strings_start = offsets_start + (2 * size + 1) * Integer.BYTES;
+		zone_lengths_start = strings_start + strings_length;
+		zones_start = zone_lengths_start + zone_count * Integer.BYTES;
+		if (zones_start > buffer.limit()) {
+			throw new IOException("Mission snapshot is truncated");
+		}
+	}
+
+	/**
+	 * Gets everything needed for the date from a server
+	 *
+	 * @param srv the server of the date
+	 * @param date the day in format: [DD, MM, YYYY]
+	 * @return the snapshot, held in memory
+	 * @throws ServerException if the data cannot be downloaded
+	 */
+	public static MissionSnapshot capture(Server srv, String[] date) {
+		var readings = srv.getDayReadings();
+		var points = srv.getHashMap();
+		var no_fly_zones = srv.getJTSNoFlyZones();
+		var n = readings.size();
+
+		// encode the variable length parts first to know the size of the file
+		var strings = new byte[2 * n][];
+		var strings_length = 0;
+		for (var i = 0; i < n; i++) {
+			strings[i] = readings.location(i).getBytes(StandardCharsets.UTF_8);
+			var text = readings.text(i);
+			strings[n + i] = (text != null ? text : "").getBytes(StandardCharsets.UTF_8);
+			strings_length += strings[i].length + strings[n + i].length;
+		}
+		var wkb = new byte[no_fly_zones.size()][];
+		var zones_length = 0;
+		var writer = new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN);
+		for (var z = 0; z < wkb.length; z++) {
+			wkb[z] = writer.write(no_fly_zones.get(z));
+			zones_length += wkb[z].length;
+		}
+
+		var buffer = ByteBuffer.allocate(header_size + 4 * n * Double.BYTES + (2 * n + 1) * Integer.BYTES
+				+ strings_length + wkb.length * Integer.BYTES + zones_length).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(file_magic).putInt(file_version);
+		buffer.putInt(Integer.parseInt(date[0])).putInt(Integer.parseInt(date[1])).putInt(Integer.parseInt(date[2]));
+		buffer.putInt(n).putInt(wkb.length).putInt(strings_length);
+		for (var i = 0; i < n; i++) {
+			buffer.putDouble(points.get(readings.location(i)).longitude());
+		}
+		for (var i = 0; i < n; i++) {
+			buffer.putDouble(points.get(readings.location(i)).latitude());
+		}
+		for (var i = 0; i < n; i++) {
+			buffer.putDouble(readings.battery(i));
+		}
+		for (var i = 0; i < n; i++) {
+			buffer.putDouble(readings.reading(i));
+		}
+		var offset = 0;
+		buffer.putInt(offset);
+		for (var string : strings) {
+			offset += string.length;
+			buffer.putInt(offset);
+		}
+		for (var string : strings) {
+			buffer.put(string);
+		}
+		for (var zone : wkb) {
+			buffer.putInt(zone.length);
+		}
+		for (var zone : wkb) {
+			buffer.put(zone);
+		}
+		buffer.flip();
+		try {
+			return new MissionSnapshot(buffer);
+		} catch (IOException e) {
+			throw new IllegalStateException("Captured an invalid snapshot", e);
+		}
+	}
+
+	/**
+	 * Maps a snapshot file into memory
+	 *
+	 * @param file the file to load
+	 * @return the snapshot
+	 * @throws IOException if the file cannot be read or is not a snapshot of this version
+	 */
+	public static MissionSnapshot load(File file) throws IOException {
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			var mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			return new MissionSnapshot(mapped.order(ByteOrder.LITTLE_ENDIAN));
+		}
+	}
+
+	/**
+	 * Saves the snapshot to a file, replacing it atomically
+	 *
+	 * @param file the file to save to
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(File file) throws IOException {
+		AtomicFile.write(file, out -> {
+			var channel = Channels.newChannel(out);
+			var contents = buffer.duplicate().clear();
+			while (contents.hasRemaining()) {
+				channel.write(contents);
+			}
+		});
+	}
+
+	/**
+	 * Gives a server the data of the snapshot, so that it downloads nothing. The values are copied
+	 * out of the file into the structures the server keeps, so only the parsing is saved.
+	 *
+	 * @param srv the server of the date of the snapshot
+	 */
+	public void preload(Server srv) {
+		srv.preload(readings(), points(), noFlyZones());
+	}
+
+	/**
+	 * @return the day of the snapshot in format: [DD, MM, YYYY]
+	 */
+	public String[] date() {
+		return new String[] { String.format("%02d", buffer.getInt(8)), String.format("%02d", buffer.getInt(12)),
+				String.format("%04d", buffer.getInt(16)) };
+	}
+
+	/**
+	 * @param date a day in format: [DD, MM, YYYY]
+	 * @return true if the snapshot is of the day
+	 */
+	public boolean isOf(String[] date) {
+		return buffer.getInt(8) == Integer.parseInt(date[0]) && buffer.getInt(12) == Integer.parseInt(date[1])
+				&& buffer.getInt(16) == Integer.parseInt(date[2]);
+	}
+
+	/**
+	 * @return number of sensors
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param i position of the sensor
+	 * @return w3w location of the sensor
+	 */
+	public String location(int i) {
+		return string(i);
+	}
+
+	/**
+	 * @param i position of the sensor
+	 * @return longitude of the sensor
+	 */
+	public double longitude(int i) {
+		return column(0, i);
+	}
+
+	/**
+	 * @param i position of the sensor
+	 * @return latitude of the sensor
+	 */
+	public double latitude(int i) {
+		return column(1, i);
+	}
+
+	/**
+	 * @param i position of the sensor
+	 * @return battery level of the sensor
+	 */
+	public double battery(int i) {
+		return column(2, i);
+	}
+
+	/**
+	 * @param i position of the sensor
+	 * @return reading of the sensor, NaN if it is not a number
+	 */
+	public double reading(int i) {
+		return column(3, i);
+	}
+
+	/**
+	 * @param i position of the sensor
+	 * @return reading of the sensor as given in the document if it is not a number, otherwise null
+	 */
+	public String text(int i) {
+		return Double.isNaN(reading(i)) ? string(size + i) : null;
+	}
+
+	/**
+	 * @return the readings of the sensors
+	 */
+	public DayReadings readings() {
+		var locations = new String[size];
+		var battery = new double[size];
+		var reading = new double[size];
+		var text = new String[size];
+		for (var i = 0; i < size; i++) {
+			locations[i] = location(i);
+			text[i] = text(i);
+		}
+		buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(columns_start + 2 * size * Double.BYTES)
+				.asDoubleBuffer().get(battery).get(reading);
+		return new DayReadings(locations, battery, reading, text, size);
+	}
+
+	/**
+	 * @return points of the locations of the sensors
+	 */
+	public HashMap<String, Point> points() {
+		var points = new HashMap<String, Point>();
+		for (var i = 0; i < size; i++) {
+			points.put(location(i), Point.fromLngLat(longitude(i), latitude(i)));
+		}
+		return points;
+	}
+
+	/**
+	 * @return the no fly zones
+	 * @throws IllegalStateException if a zone is not valid WKB
+	 */
+	public ArrayList<Polygon> noFlyZones() {
+		var reader = new WKBReader(gf);
+		var zones = new ArrayList<Polygon>();
+		var start = zones_start;
+		for (var z = 0; z < zone_count; z++) {
+			var bytes = bytes(start, buffer.getInt(zone_lengths_start + z * Integer.BYTES));
+			start += bytes.length;
+			try {
+				zones.add((Polygon) reader.read(bytes));
+			} catch (ParseException e) {
+				throw new IllegalStateException("Invalid no fly zone in the snapshot", e);
+			}
+		}
+		return zones;
+	}
+
+	/**
+	 * Decodes one of the strings of the file, the locations first and then the texts of the readings
+	 */
+	private String string(int k) {
+		var start = buffer.getInt(offsets_start + k * Integer.BYTES);
+		var end = buffer.getInt(offsets_start + (k + 1) * Integer.BYTES);
+		return new String(bytes(strings_start + start, end - start), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Copies bytes out of the file
+	 */
+	private byte[] bytes(int start, int length) {
+		var bytes = new byte[length];
+		buffer.duplicate().position(start).get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Reads a value of one of the four columns
+	 */
+	private double column(int column, int i) {
+		return buffer.getDouble(columns_start + (column * size + i) * Double.BYTES);
+	}
+}
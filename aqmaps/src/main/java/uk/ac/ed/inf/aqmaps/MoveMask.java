@@ -0,0 +1,248 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+
+/**
+ * A raster of the confinement area storing, for each cell and each of the 36 directions, whether
+ * a move starting anywhere in the cell is certainly allowed or certainly forbidden. Moves that
+ * are neither need an exact check. Only cells near an obstacle are tested with JTS when the raster
+ * is built; all the directions of the other cells are allowed.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class MoveMask {
+
+	// raised whenever the way the raster is built changes, so that rasters saved before are built again
+	private final static int algorithm_version = 1;
+	// width and height of a cell in degrees
+	private final static double cell_size = Path.move_length / 3;
+	// cells are widened by this much to absorb rounding when locating a point
+	private final static double margin = 1e-10;
+	private final static long all_directions = (1L << 36) - 1;
+
+	private static final GeometryFactory gf = new GeometryFactory();
+
+	private final int columns;
+	private final int rows;
+	// one bit per direction (angle / 10) for each cell, row by row
+	private final long[] allowed;
+	private final long[] forbidden;
+
+	/**
+	 * Rasterises the obstacles
+	 *
+	 * @param obstacles the obstacles to test moves against
+	 */
+	MoveMask(ObstacleIndex obstacles) {
+		columns = (int) Math.ceil((ObstacleIndex.max_lon - ObstacleIndex.min_lon) / cell_size);
+		rows = (int) Math.ceil((ObstacleIndex.max_lat - ObstacleIndex.min_lat) / cell_size);
+		allowed = new long[columns * rows];
+		forbidden = new long[columns * rows];
+
+		// rows are independent, so rasterise them in parallel
+		IntStream.range(0, rows).parallel().forEach(row -> {
+			for (var column = 0; column < columns; column++) {
+				var min_lon = ObstacleIndex.min_lon + column * cell_size - margin;
+				var min_lat = ObstacleIndex.min_lat + row * cell_size - margin;
+				var max_lon = min_lon + cell_size + 2 * margin;
+				var max_lat = min_lat + cell_size + 2 * margin;
+				var cell = row * columns + column;
+
+				// no move from a cell far from every obstacle can reach one
+				var reach = new Envelope(min_lon, max_lon, min_lat, max_lat);
+				reach.expandBy(Path.move_length);
+				if (!obstacles.near(reach)) {
+					allowed[cell] = all_directions;
+					continue;
+				}
+
+				var cell_polygon = rectangle(min_lon, min_lat, max_lon, max_lat, 0, 0);
+				var cell_forbidden = obstacles.covered(cell_polygon);
+				for (var i = 0; i < 36; i++) {
+					var bit = 1L << i;
+					if (cell_forbidden) {
+						forbidden[cell] |= bit;
+						continue;
+					}
+					// all moves in this direction from the cell stay within the area swept by the cell
+					var swept_envelope = new Envelope(min_lon, max_lon, min_lat, max_lat);
+					swept_envelope.expandToInclude(min_lon + Path.delta_lon[i], min_lat + Path.delta_lat[i]);
+					swept_envelope.expandToInclude(max_lon + Path.delta_lon[i], max_lat + Path.delta_lat[i]);
+					if (!obstacles.near(swept_envelope)) {
+						allowed[cell] |= bit;
+						continue;
+					}
+					var swept = rectangle(min_lon, min_lat, max_lon, max_lat, Path.delta_lon[i], Path.delta_lat[i]);
+					if (!obstacles.intersects(swept)) {
+						allowed[cell] |= bit;
+						continue;
+					}
+					// all moves in this direction end inside a no fly zone
+					var moved = rectangle(min_lon + Path.delta_lon[i], min_lat + Path.delta_lat[i],
+							max_lon + Path.delta_lon[i], max_lat + Path.delta_lat[i], 0, 0);
+					if (obstacles.covered(moved)) {
+						forbidden[cell] |= bit;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param columns number of cells in a row
+	 * @param rows number of rows
+	 * @param allowed bits of the directions certainly allowed, for each cell
+	 * @param forbidden bits of the directions certainly forbidden, for each cell
+	 */
+	private MoveMask(int columns, int rows, long[] allowed, long[] forbidden) {
+		this.columns = columns;
+		this.rows = rows;
+		this.allowed = allowed;
+		this.forbidden = forbidden;
+	}
+
+	/**
+	 * Writes the raster, so that it can be read back instead of built again, after everything
+	 * besides the obstacles it depends on
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException if the stream cannot be written
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(algorithm_version);
+		for (var parameter : parameters()) {
+			out.writeDouble(parameter);
+		}
+		out.writeInt(columns);
+		out.writeInt(rows);
+		for (var cell = 0; cell < allowed.length; cell++) {
+			out.writeLong(allowed[cell]);
+			out.writeLong(forbidden[cell]);
+		}
+	}
+
+	/**
+	 * Reads a raster written by write()
+	 *
+	 * @param in the stream to read from
+	 * @return the raster, or null if it was built by another version or with other parameters, as
+	 *         its answers may be wrong now
+	 * @throws IOException if the stream cannot be read, or the raster was built for other cells
+	 */
+	static MoveMask read(DataInputStream in) throws IOException {
+		var stale = in.readInt() != algorithm_version;
+		for (var parameter : parameters()) {
+			stale |= in.readDouble() != parameter;
+		}
+		if (stale) {
+			return null;
+		}
+		var columns = in.readInt();
+		var rows = in.readInt();
+		if (columns != (int) Math.ceil((ObstacleIndex.max_lon - ObstacleIndex.min_lon) / cell_size)
+				|| rows != (int) Math.ceil((ObstacleIndex.max_lat - ObstacleIndex.min_lat) / cell_size)) {
+			throw new IOException("Move mask of " + columns + " by " + rows + " cells does not match the area");
+		}
+		var allowed = new long[columns * rows];
+		var forbidden = new long[columns * rows];
+		for (var cell = 0; cell < allowed.length; cell++) {
+			allowed[cell] = in.readLong();
+			forbidden[cell] = in.readLong();
+		}
+		return new MoveMask(columns, rows, allowed, forbidden);
+	}
+
+	/**
+	 * Looks up whether a move is certainly allowed
+	 *
+	 * @param lon longitude of the start of the move
+	 * @param lat latitude of the start of the move
+	 * @param angle direction of the move, a multiple of 10
+	 * @return true if the move is known to be allowed
+	 */
+	boolean allowed(double lon, double lat, int angle) {
+		var cell = cell(lon, lat);
+		return cell >= 0 && (allowed[cell] & (1L << (angle / 10))) != 0;
+	}
+
+	/**
+	 * Looks up whether a move is certainly forbidden
+	 *
+	 * @param lon longitude of the start of the move
+	 * @param lat latitude of the start of the move
+	 * @param angle direction of the move, a multiple of 10
+	 * @return true if the move is known to be forbidden
+	 */
+	boolean forbidden(double lon, double lat, int angle) {
+		var cell = cell(lon, lat);
+		return cell >= 0 && (forbidden[cell] & (1L << (angle / 10))) != 0;
+	}
+
+	/**
+	 * @return bits of the directions known to be allowed from a location, 0 outside the raster
+	 */
+	long allowedDirections(double lon, double lat) {
+		var cell = cell(lon, lat);
+		return cell >= 0 ? allowed[cell] : 0;
+	}
+
+	/**
+	 * @return bits of the directions known to be forbidden from a location, 0 outside the raster
+	 */
+	long forbiddenDirections(double lon, double lat) {
+		var cell = cell(lon, lat);
+		return cell >= 0 ? forbidden[cell] : 0;
+	}
+
+	/**
+	 * @return the sizes and the area the raster is built with
+	 */
+	private static double[] parameters() {
+		return new double[] { cell_size, margin, Path.move_length, ObstacleIndex.min_lon, ObstacleIndex.max_lon,
+				ObstacleIndex.min_lat, ObstacleIndex.max_lat };
+	}
+
+	/**
+	 * Finds the cell containing a location
+	 *
+	 * @return index of the cell, or -1 if the location is outside the raster
+	 */
+	private int cell(double lon, double lat) {
+		var column = (int) Math.floor((lon - ObstacleIndex.min_lon) / cell_size);
+		var row = (int) Math.floor((lat - ObstacleIndex.min_lat) / cell_size);
+		if (column < 0 || column >= columns || row < 0 || row >= rows) {
+			return -1;
+		}
+		return row * columns + column;
+	}
+
+	/**
+	 * Constructs the polygon covered by a rectangle moving along a vector. It is the convex hull of the
+	 * rectangle at the start and at the end of the move, and just the rectangle for a zero vector.
+	 *
+	 * @return the swept polygon
+	 */
+	private static Polygon rectangle(double min_lon, double min_lat, double max_lon, double max_lat, double d_lon,
+			double d_lat) {
+		var corners = new Coordinate[] { new Coordinate(min_lon, min_lat), new Coordinate(max_lon, min_lat),
+				new Coordinate(max_lon, max_lat), new Coordinate(min_lon, max_lat) };
+		if (d_lon == 0 && d_lat == 0) {
+			return gf.createPolygon(new Coordinate[] { corners[0], corners[1], corners[2], corners[3], corners[0] });
+		}
+		var points = new Coordinate[8];
+		for (var i = 0; i < 4; i++) {
+			points[i] = corners[i];
+			points[i + 4] = new Coordinate(corners[i].x + d_lon, corners[i].y + d_lat);
+		}
+		return (Polygon) gf.createMultiPointFromCoords(points).convexHull();
+	}
+}
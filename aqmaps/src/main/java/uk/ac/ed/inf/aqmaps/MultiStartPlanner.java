@@ -0,0 +1,154 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Plans several candidate paths in parallel and keeps the best one. The first candidate is the
+ * deterministic path of Path.generatePath(), the others use seeded randomised tour orders and
+ * tie-breaking. Candidates not finished within the time budget are abandoned.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class MultiStartPlanner {
+
+	private final Path path;
+	private final int sensor_count;
+	private final long seed;
+	private int candidates = 16;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private long time_budget = 5000;
+
+	/**
+	 * @param path the path to generate candidates from
+	 * @param sensor_count number of sensors the path should visit
+	 * @param seed seed of the randomised candidates
+	 */
+	public MultiStartPlanner(Path path, int sensor_count, long seed) {
+		this.path = path;
+		this.sensor_count = sensor_count;
+		this.seed = seed;
+	}
+
+	/**
+	 * @param candidates number of candidate paths to plan, 16 by default
+	 */
+	public void setCandidates(int candidates) {
+		this.candidates = candidates;
+	}
+
+	/**
+	 * @param workers number of threads to plan on, the number of processors by default
+	 */
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	/**
+	 * @param time_budget wall-clock time in milliseconds after which to stop planning, 5000 by default.
+	 *                    It covers building the cost matrix of the tour as well as the candidates.
+	 */
+	public void setTimeBudget(long time_budget) {
+		this.time_budget = time_budget;
+	}
+
+	/**
+	 * Plans the candidates and returns the best one. If the budget runs out before any candidate is
+	 * planned, the quick path of Path.generateQuickPath() is planned instead, outside the budget.
+	 *
+	 * @return the best path found
+	 */
+	public ArrayList<PathStep> plan() {
+		var deadline = System.nanoTime() + time_budget * 1_000_000;
+		var pool = new ForkJoinPool(workers);
+		ArrayList<PathStep> best = null;
+		try {
+			// build the cost matrix once, on the pool, before the candidates share it
+			if (getBefore(pool.submit(() -> path.tourOptimiser()), deadline) != null) {
+				var futures = new ArrayList<Future<ArrayList<PathStep>>>();
+				for (var i = 0; i < candidates; i++) {
+					var random = i == 0 ? null : new Random(seed + i);
+					futures.add(pool.submit(() -> System.nanoTime() < deadline ? path.generatePath(random) : null));
+				}
+
+				for (var future : futures) {
+					var candidate = getBefore(future, deadline);
+					if (candidate != null && (best == null || better(candidate, best, sensor_count))) {
+						best = candidate;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while planning", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Planning a candidate failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return best != null ? best : path.generateQuickPath();
+	}
+
+	/**
+	 * Waits for a task until the deadline and cancels it if it is not finished by then
+	 *
+	 * @return the result, or null if it did not finish in time
+	 */
+	private static <T> T getBefore(Future<T> future, long deadline)
+			throws InterruptedException, ExecutionException {
+		try {
+			return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			return null;
+		}
+	}
+
+	/**
+	 * Compares two paths. A path reading all sensors and returning home beats one that does not,
+	 * then more sensors read beats fewer, then fewer moves beat more.
+	 *
+	 * @param sensor_count number of sensors the paths should visit
+	 * @return true if path a is better than path b
+	 */
+	static boolean better(ArrayList<PathStep> a, ArrayList<PathStep> b, int sensor_count) {
+		var a_valid = valid(a, sensor_count);
+		if (a_valid != valid(b, sensor_count)) {
+			return a_valid;
+		}
+		var a_reads = sensorsRead(a);
+		var b_reads = sensorsRead(b);
+		if (a_reads != b_reads) {
+			return a_reads > b_reads;
+		}
+		return a.size() < b.size();
+	}
+
+	/**
+	 * @param sensor_count number of sensors the path should visit
+	 * @return true if the path reads all sensors and the last move brings the drone home
+	 */
+	static boolean valid(ArrayList<PathStep> path, int sensor_count) {
+		return sensorsRead(path) == sensor_count && !path.isEmpty()
+				&& "null".equals(path.get(path.size() - 1).sensor_to_read);
+	}
+
+	/**
+	 * @return number of steps instructing to read a sensor
+	 */
+	static int sensorsRead(ArrayList<PathStep> path) {
+		var reads = 0;
+		for (var step : path) {
+			if (step.sensor_to_read != null && !"null".equals(step.sensor_to_read)) {
+				reads++;
+			}
+		}
+		return reads;
+	}
+}
@@ -0,0 +1,260 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.index.strtree.STRtree;
+
+/**
+ * Answers whether a straight move crosses the confinement area boundary or any of the no fly zones.
+ * It is built once per set of no fly zones, so that each check costs a few envelope comparisons
+ * unless the move is close to an obstacle. Moves in the 36 allowed directions are first looked up
+ * in a raster of the confinement area, and only checked exactly if the raster cannot tell.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class ObstacleIndex {
+
+	// bounds of the confinement area
+	final static double min_lon = -3.192473;
+	final static double max_lon = -3.184319;
+	final static double min_lat = 55.942617;
+	final static double max_lat = 55.946233;
+
+	private static final GeometryFactory gf = new GeometryFactory();
+	private static final PreparedGeometry confinement_area = PreparedGeometryFactory.prepare(confinementRing());
+
+	private final PreparedGeometry[] no_fly_zones;
+	private final STRtree tree = new STRtree();
+	// extent of all the no fly zones, checked before querying the tree
+	private final Envelope extent = new Envelope();
+	private long fingerprint = 17;
+	private final MoveMask mask;
+
+	/**
+	 * @param no_fly_zones areas to avoid in JTS type
+	 */
+	public ObstacleIndex(ArrayList<Polygon> no_fly_zones) {
+		this(no_fly_zones, null);
+	}
+
+	/**
+	 * @param no_fly_zones areas to avoid in JTS type
+	 * @param mask raster built earlier for the same no fly zones, or null to build it
+	 */
+	ObstacleIndex(ArrayList<Polygon> no_fly_zones, MoveMask mask) {
+		this.no_fly_zones = new PreparedGeometry[no_fly_zones.size()];
+		for (var i = 0; i < no_fly_zones.size(); i++) {
+			var nfz = no_fly_zones.get(i);
+			this.no_fly_zones[i] = PreparedGeometryFactory.prepare(nfz);
+			tree.insert(nfz.getEnvelopeInternal(), this.no_fly_zones[i]);
+			extent.expandToInclude(nfz.getEnvelopeInternal());
+			for (var coordinate : nfz.getCoordinates()) {
+				fingerprint = 31 * fingerprint + Double.doubleToLongBits(coordinate.x);
+				fingerprint = 31 * fingerprint + Double.doubleToLongBits(coordinate.y);
+			}
+		}
+		// build now, so that the tree is read-only once planning starts
+		tree.build();
+		this.mask = mask != null ? mask : new MoveMask(this);
+	}
+
+	/**
+	 * Identifies the no fly zones, so that results computed for them can be stored and reused
+	 * 
+	 * @return hash of the coordinates of all the no fly zones
+	 */
+	public long fingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * @return the raster of the moves, to reuse for the same no fly zones
+	 */
+	MoveMask mask() {
+		return mask;
+	}
+
+	/**
+	 * Checks whether a straight move between two locations intersects the confinement area boundary
+	 * or any of the no fly zones
+	 *
+	 * @param from_lon longitude of the start of the move
+	 * @param from_lat latitude of the start of the move
+	 * @param to_lon longitude of the end of the move
+	 * @param to_lat latitude of the end of the move
+	 * @return Returns true if the move is forbidden, false otherwise
+	 */
+	public boolean intersects(double from_lon, double from_lat, double to_lon, double to_lat) {
+		// a move with both ends strictly inside the (convex) confinement area cannot cross its boundary
+		var inside = strictlyInside(from_lon, from_lat) && strictlyInside(to_lon, to_lat);
+
+		// only build the JTS line when an exact test is unavoidable
+		LineString move_line = null;
+		if (!inside) {
+			move_line = moveLine(from_lon, from_lat, to_lon, to_lat);
+			if (confinement_area.intersects(move_line)) {
+				return true;
+			}
+		}
+
+		// skip the tree query when the move is away from all the no fly zones
+		if (Math.max(from_lon, to_lon) < extent.getMinX() || Math.min(from_lon, to_lon) > extent.getMaxX()
+				|| Math.max(from_lat, to_lat) < extent.getMinY() || Math.min(from_lat, to_lat) > extent.getMaxY()) {
+			return false;
+		}
+
+		// check for intersection with the no fly zones whose envelopes overlap the move
+		for (var item : tree.query(new Envelope(from_lon, to_lon, from_lat, to_lat))) {
+			if (move_line == null) {
+				move_line = moveLine(from_lon, from_lat, to_lon, to_lat);
+			}
+			if (((PreparedGeometry) item).intersects(move_line)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a move in one of the 36 allowed directions is forbidden, using the raster
+	 * and falling back to the exact check near obstacles
+	 * 
+	 * @param lon longitude of the start of the move
+	 * @param lat latitude of the start of the move
+	 * @param angle direction of the move, a multiple of 10
+	 * @return Returns true if the move is forbidden, false otherwise
+	 */
+	public boolean forbidden(double lon, double lat, int angle) {
+		if (mask.allowed(lon, lat, angle)) {
+			return false;
+		}
+		if (mask.forbidden(lon, lat, angle)) {
+			return true;
+		}
+		return intersects(lon, lat, lon + Path.delta_lon[angle / 10], lat + Path.delta_lat[angle / 10]);
+	}
+
+	/**
+	 * Counts the forbidden moves out of the 36 allowed directions from a location
+	 * 
+	 * @param lon longitude of the location
+	 * @param lat latitude of the location
+	 * @return number of forbidden directions
+	 */
+	public int forbiddenCount(double lon, double lat) {
+		var allowed = mask.allowedDirections(lon, lat);
+		var forbidden = mask.forbiddenDirections(lon, lat);
+		var count = Long.bitCount(forbidden);
+		// check exactly only the directions the raster cannot tell
+		var unknown = ~(allowed | forbidden);
+		for (var i = 0; i < 36; i++) {
+			if ((unknown & (1L << i)) != 0
+					&& intersects(lon, lat, lon + Path.delta_lon[i], lat + Path.delta_lat[i])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Checks whether any obstacle, or the confinement area boundary, is close to an area
+	 * 
+	 * @param envelope the area
+	 * @return true if an obstacle may intersect the area
+	 */
+	boolean near(Envelope envelope) {
+		var inside = envelope.getMinX() > min_lon && envelope.getMaxX() < max_lon && envelope.getMinY() > min_lat
+				&& envelope.getMaxY() < max_lat;
+		return !inside || !tree.query(envelope).isEmpty();
+	}
+
+	/**
+	 * Checks whether a geometry intersects the confinement area boundary or any no fly zone
+	 * 
+	 * @param geometry the geometry to check
+	 * @return true if it intersects an obstacle
+	 */
+	boolean intersects(Geometry geometry) {
+		if (confinement_area.intersects(geometry)) {
+			return true;
+		}
+		for (var item : tree.query(geometry.getEnvelopeInternal())) {
+			if (((PreparedGeometry) item).intersects(geometry)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a geometry lies entirely within a no fly zone
+	 * 
+	 * @param geometry the geometry to check
+	 * @return true if a no fly zone covers it
+	 */
+	boolean covered(Geometry geometry) {
+		for (var item : tree.query(geometry.getEnvelopeInternal())) {
+			if (((PreparedGeometry) item).covers(geometry)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether a point lies within a no fly zone or on its boundary
+	 *
+	 * @param lon longitude of the point
+	 * @param lat latitude of the point
+	 * @return true if a no fly zone covers it
+	 */
+	boolean inNoFlyZone(double lon, double lat) {
+		return covered(gf.createPoint(new Coordinate(lon, lat)));
+	}
+
+	/**
+	 * Checks whether a point lies strictly inside the confinement area
+	 *
+	 * @param lon longitude of the point
+	 * @param lat latitude of the point
+	 * @return Returns true if inside and not on the boundary
+	 */
+	static boolean strictlyInside(double lon, double lat) {
+		return lon > min_lon && lon < max_lon && lat > min_lat && lat < max_lat;
+	}
+
+	/**
+	 * Constructs a JTS LineString representing a move
+	 *
+	 * @return the move line
+	 */
+	private static LineString moveLine(double from_lon, double from_lat, double to_lon,
+			double to_lat) {
+		Coordinate[] move_coordinate_sequence = { new Coordinate(from_lon, from_lat), new Coordinate(to_lon, to_lat) };
+		return gf.createLineString(move_coordinate_sequence);
+	}
+
+	/**
+	 * Constructs the confinement area as a JTS LinearRing
+	 *
+	 * @return the boundary of the confinement area
+	 */
+	private static LinearRing confinementRing() {
+		var nw_pt = new Coordinate(min_lon, max_lat);
+		var sw_pt = new Coordinate(min_lon, min_lat);
+		var se_pt = new Coordinate(max_lon, min_lat);
+		var ne_pt = new Coordinate(max_lon, max_lat);
+		Coordinate[] campus_coordinate_sequence = { nw_pt, sw_pt, se_pt, ne_pt, nw_pt };
+		return gf.createLinearRing(campus_coordinate_sequence);
+	}
+}
@@ -1,10 +1,10 @@
 package uk.ac.ed.inf.aqmaps;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
 
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Polygon;
 
 import com.mapbox.geojson.Point;
@@ -19,12 +19,30 @@ public class Path {
 
 	private ArrayList<SensorLocation> sensors;
 	private Point init_loc;
-	private ArrayList<Polygon> no_fly_zones;
+	private ObstacleIndex obstacles;
 	
-	private final static Double move_length = 0.0003;
-	final static Double sensor_range = 0.0002;
-	private final static Double return_range = 0.0003;
-	private int move_counter = 0;
+	final static double move_length = 0.0003;
+	final static double sensor_range = 0.0002;
+	final static double return_range = 0.0003;
+	final static int max_moves = 150;
+	private long optimise_time_limit = 1000;
+	private PlannerMode mode = PlannerMode.GREEDY;
+	private LegCache leg_cache = null;
+	// built on first use and shared by all paths generated by this object
+	private TourOptimiser tour_optimiser = null;
+	// legs are costed from many threads, so each thread gets its own search buffers
+	private final ThreadLocal<LatticeSearch> lattice_search;
+	
+	// change in longitude and latitude for a move in each of the 36 allowed directions (angle / 10)
+	final static double[] delta_lon = new double[36];
+	final static double[] delta_lat = new double[36];
+	static {
+		for (var i = 0; i < 36; i++) {
+			var rad_angle = Math.toRadians(i * 10);
+			delta_lon[i] = move_length * Math.cos(rad_angle);
+			delta_lat[i] = move_length * Math.sin(rad_angle);
+		}
+	}
 
 	/**
 	 * @param sensors an unordered list of sensors to consider
@@ -32,21 +50,83 @@ public class Path {
 	 * @param no_fly_zones areas to avoid in JTS type
 	 */
 	public Path(ArrayList<SensorLocation> sensors, Point init_loc, ArrayList<Polygon> no_fly_zones) {
+		this(sensors, init_loc, new ObstacleIndex(no_fly_zones));
+	}
+
+	/**
+	 * @param sensors an unordered list of sensors to consider
+	 * @param init_loc start and end location
+	 * @param obstacles index of the areas to avoid, can be shared between paths
+	 */
+	public Path(ArrayList<SensorLocation> sensors, Point init_loc, ObstacleIndex obstacles) {
 		this.sensors = sensors;
 		this.init_loc = init_loc;
-		this.no_fly_zones = no_fly_zones;
+		this.obstacles = obstacles;
+		this.lattice_search = ThreadLocal.withInitial(() -> new LatticeSearch(obstacles));
 	}
 
 	/**
-	 * Generates a path starting at the init_loc of the object, visiting all sensors, and returns close to init_loc
+	 * Sets how the moves between two locations are found
+	 * 
+	 * @param mode the planner mode, GREEDY by default
+	 */
+	public void setMode(PlannerMode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Sets a cache to reuse legs planned earlier from nearby locations
+	 * 
+	 * @param leg_cache the cache, can be shared between paths with the same no fly zones
+	 */
+	public void setLegCache(LegCache leg_cache) {
+		this.leg_cache = leg_cache;
+	}
+
+	/**
+	 * Sets how long the tour optimisation may search for a better order of sensors. It does not
+	 * bound counting the moves between every pair of sensors, which is done once before the search.
+	 * 
+	 * @param optimise_time_limit time limit in milliseconds of the local search
+	 */
+	public void setOptimiseTimeLimit(long optimise_time_limit) {
+		this.optimise_time_limit = optimise_time_limit;
+	}
+
+	/**
+	 * Generates a path starting at the init_loc of the object, visiting all sensors, and returns close to init_loc.
+	 * Planning works on primitive longitude/latitude pairs and only creates PathSteps for the resulting path.
 	 *  
 	 * @return returns the path
 	 */
 	public ArrayList<PathStep> generatePath() {
+		return generatePath(null);
+	}
+
+	/**
+	 * Generates a path visiting the sensors in nearest neighbour order by straight-line distance.
+	 * It skips the tour optimisation, so it is quick but usually longer than generatePath().
+	 *  
+	 * @return returns the path
+	 */
+	public ArrayList<PathStep> generateQuickPath() {
+		return sensorsPath(nearestOrder(), null);
+	}
+
+	/**
+	 * Generates a path as generatePath() does, but with a randomised starting order for the tour
+	 * optimisation and random tie-breaking when steering, so that different seeds give different paths.
+	 * It can be called from many threads at once.
+	 *  
+	 * @param random source of randomness, or null to generate the deterministic path
+	 * @return returns the path
+	 * @throws CancellationException if the thread is interrupted while planning
+	 */
+	ArrayList<PathStep> generatePath(Random random) {
 		// choose order in which to visit sensors
-		var order = chooseOrder();
+		var order = optimiseOrder(random);
 		// find how to visit the sensors in that order and construct a path
-		var full_path = sensorsPath(order);
+		var full_path = sensorsPath(order, random);
 		
 		return full_path;
 	}
@@ -56,106 +136,203 @@ public class Path {
 	 * the drone should be in range of specific sensors
 	 * 
 	 * @param ordered_sensors an ordered ArrayList of sensors to visit
+	 * @param random source of randomness for breaking ties, or null
 	 * @return the path between the specified ordered sensors
 	 */
-	private ArrayList<PathStep> sensorsPath(ArrayList<SensorLocation> ordered_sensors) {
+	private ArrayList<PathStep> sensorsPath(ArrayList<SensorLocation> ordered_sensors, Random random) {
 		// an ArrayList of steps
 		var full_path = new ArrayList<PathStep>();
-		// convert the initial location to the type required by twoPointsPath
-		var init_as_sensor = new SensorLocation("null", init_loc);
-		// set the starting point to initial location
-		var curr_loc = init_as_sensor;
+		// current location as {longitude, latitude}, updated by twoPointsPath
+		double[] curr_loc = { init_loc.longitude(), init_loc.latitude() };
+		var move_counter = 0;
 
 		// Find paths between the starting point and the first sensor, then other sensors
 		for (var sen : ordered_sensors) {
-//			System.out.println("Finding path to sensor = " + sen.location);
-			var curr_path = twoPointsPath(curr_loc, sen, sensor_range);
-			full_path.addAll(curr_path);
-			curr_loc = new SensorLocation("", moveAlongPath(curr_loc.point, curr_path));
+			// a planner that gave up on this path interrupts the thread, so stop between legs
+			if (Thread.currentThread().isInterrupted()) {
+				throw new CancellationException("Interrupted while planning the path");
+			}
+			move_counter += twoPointsPath(curr_loc, sen.point.longitude(), sen.point.latitude(), sen.location,
+					sensor_range, max_moves - move_counter, full_path, random);
 		}
 
 		// Find path to return home
-		var curr_path = twoPointsPath(curr_loc, init_as_sensor, return_range);
-		full_path.addAll(curr_path);
+		twoPointsPath(curr_loc, init_loc.longitude(), init_loc.latitude(), "null", return_range,
+				max_moves - move_counter, full_path, random);
 
 		return full_path;
 	}
 
 	/**
-	 * Calculates the steps (angles at which to move) to get from sensor s1 
-	 * to a location at maximum distance of proximity to s2. Each step determines
-	 * whether to take a reading after a move.
+	 * Calculates the steps (angles at which to move) to get from the current location 
+	 * to a location at maximum distance of proximity to the destination, using the planner mode. 
+	 * The last step instructs to read the destination sensor if it has been reached.
 	 * 
-	 * @param s1 sensor to start the path at
-	 * @param s2 sensor to finish the path at
+	 * @param curr_loc {longitude, latitude} to start the path at, updated to the end of the path
+	 * @param dest_lon longitude of the destination
+	 * @param dest_lat latitude of the destination
+	 * @param dest_name w3w location of the destination sensor
 	 * @param proximity the maximum distance from the destination point
-	 * @return returns a list of steps
+	 * @param moves_left maximum number of moves to make
+	 * @param path list of steps to append the steps to, or null to only count the moves
+	 * @param random source of randomness for breaking ties, or null
+	 * @return number of moves made
 	 */
-	private ArrayList<PathStep> twoPointsPath(SensorLocation s1, SensorLocation s2, Double proximity) {
-		// initiate a list of steps
-		var path = new ArrayList<PathStep>();
+	private int twoPointsPath(double[] curr_loc, double dest_lon, double dest_lat, String dest_name,
+			double proximity, int moves_left, ArrayList<PathStep> path, Random random) {
+		var angles = legAngles(curr_loc[0], curr_loc[1], dest_lon, dest_lat, proximity, moves_left, random);
+		for (var i = 0; i < angles.length; i++) {
+			curr_loc[0] += delta_lon[angles[i] / 10];
+			curr_loc[1] += delta_lat[angles[i] / 10];
+			if (path != null) {
+				// determine whether to instruct to read a sensor
+				if (i == angles.length - 1 && distance(dest_lon, dest_lat, curr_loc[0], curr_loc[1]) < proximity) {
+					path.add(new PathStep(angles[i], dest_name));
+				} else {
+					path.add(new PathStep(angles[i]));
+				}
+			}
+		}
+		return angles.length;
+	}
 
-		// make a copy of the sensor locations
-		var curr_point = Point.fromLngLat(s1.point.longitude(), s1.point.latitude());
-		var dest_point = Point.fromLngLat(s2.point.longitude(), s2.point.latitude());
-		int move_angle;
+	/**
+	 * Finds the angles of the moves from a location to within proximity of the destination. 
+	 * A leg found in the leg cache is reused if it is still valid from this location. Randomised legs
+	 * neither use nor fill the cache, which holds the deterministic legs only.
+	 * 
+	 * @param from_lon longitude of the start
+	 * @param from_lat latitude of the start
+	 * @param dest_lon longitude of the destination
+	 * @param dest_lat latitude of the destination
+	 * @param proximity the maximum distance from the destination point
+	 * @param moves_left maximum number of moves to make
+	 * @param random source of randomness for breaking ties, or null
+	 * @return angles of the moves
+	 */
+	private int[] legAngles(double from_lon, double from_lat, double dest_lon, double dest_lat, double proximity,
+			int moves_left, Random random) {
+		// a cached leg would make every randomised candidate take the same way
+		var use_cache = leg_cache != null && random == null;
+		if (use_cache) {
+			var cached = leg_cache.get(from_lon, from_lat, dest_lon, dest_lat, proximity, mode,
+					angles -> reaches(from_lon, from_lat, angles, dest_lon, dest_lat, proximity, moves_left));
+			if (cached != null) {
+				return cached;
+			}
+		}
 
-		// limit the calculations to 150 moves
-		while (move_counter < 150) {
-			// find the direction of the move
-			if (path.size() > 0) {
-				move_angle = chooseAngle(curr_point, dest_point, path.get(path.size() - 1).angle);
-			} else {
-				move_angle = chooseAngle(curr_point, dest_point, null);
+		int[] angles = null;
+		if (mode == PlannerMode.ASTAR) {
+			angles = lattice_search.get().search(from_lon, from_lat, dest_lon, dest_lat, proximity, moves_left);
+		}
+		if (angles == null) {
+			angles = steer(from_lon, from_lat, dest_lon, dest_lat, proximity, moves_left, random);
+		}
+
+		// only complete legs are worth reusing
+		if (use_cache && reaches(from_lon, from_lat, angles, dest_lon, dest_lat, proximity, moves_left)) {
+			leg_cache.put(from_lon, from_lat, dest_lon, dest_lat, proximity, mode, angles);
+		}
+		return angles;
+	}
+
+	/**
+	 * Checks whether following the moves from a location is allowed and ends within proximity of the destination
+	 * 
+	 * @param from_lon longitude of the start
+	 * @param from_lat latitude of the start
+	 * @param angles the angles of the moves
+	 * @param dest_lon longitude of the destination
+	 * @param dest_lat latitude of the destination
+	 * @param proximity the maximum distance from the destination point
+	 * @param moves_left maximum number of moves to make
+	 * @return true if the moves reach the destination without entering any no fly zone
+	 */
+	private boolean reaches(double from_lon, double from_lat, int[] angles, double dest_lon, double dest_lat,
+			double proximity, int moves_left) {
+		if (angles.length == 0 || angles.length > moves_left) {
+			return false;
+		}
+		var lon = from_lon;
+		var lat = from_lat;
+		for (var angle : angles) {
+			if (forbidden(lon, lat, angle)) {
+				return false;
 			}
-			curr_point = move(curr_point, move_angle);
-			move_counter++;
+			lon += delta_lon[angle / 10];
+			lat += delta_lat[angle / 10];
+		}
+		return distance(dest_lon, dest_lat, lon, lat) < proximity;
+	}
+
+	/**
+	 * Calculates the moves by steering towards the destination and choosing other directions
+	 * around the obstacles
+	 * 
+	 * @param from_lon longitude of the start
+	 * @param from_lat latitude of the start
+	 * @param dest_lon longitude of the destination
+	 * @param dest_lat latitude of the destination
+	 * @param proximity the maximum distance from the destination point
+	 * @param moves_left maximum number of moves to make
+	 * @param random source of randomness for breaking ties, or null
+	 * @return angles of the moves
+	 */
+	private int[] steer(double from_lon, double from_lat, double dest_lon, double dest_lat, double proximity,
+			int moves_left, Random random) {
+		var angles = new int[moves_left];
+		var curr_lon = from_lon;
+		var curr_lat = from_lat;
+		// no previous angle at the start of a leg
+		var move_angle = -1;
+		var move_counter = 0;
+
+		// limit the calculations to the moves left
+		while (move_counter < moves_left) {
+			// find the direction of the move
+			move_angle = chooseAngle(curr_lon, curr_lat, dest_lon, dest_lat, move_angle, random);
+			curr_lon += delta_lon[move_angle / 10];
+			curr_lat += delta_lat[move_angle / 10];
+			angles[move_counter++] = move_angle;
 			
-			// determine whether to instruct to read a sensor
-			if (distance(dest_point, curr_point) < proximity) {
-				path.add(new PathStep(move_angle, s2.location));
+			// stop when close enough to the destination
+			if (distance(dest_lon, dest_lat, curr_lon, curr_lat) < proximity) {
 				break;
-			} else {
-				path.add(new PathStep(move_angle));
 			}
 		}
-		return path;
+		return Arrays.copyOf(angles, move_counter);
 	}
 
 	/**
 	 * Choose angle to indicate best direction to move in to reach destination
 	 * 
-	 * @param curr_point the current location of the drone
-	 * @param dest_point the destination point
-	 * @param last_angle the angle, which got us to curr_point
+	 * @param lon longitude of the current location of the drone
+	 * @param lat latitude of the current location of the drone
+	 * @param dest_lon longitude of the destination point
+	 * @param dest_lat latitude of the destination point
+	 * @param last_angle the angle, which got us to the current location, or -1 if none
+	 * @param random source of randomness for breaking ties, or null
 	 * @return returns an angle, in which the drone should move
 	 */
-	private Integer chooseAngle(Point curr_point, Point dest_point, Integer last_angle) {
+	private int chooseAngle(double lon, double lat, double dest_lon, double dest_lat, int last_angle, Random random) {
 		// Choose an allowed angle to the destination
-		var move_angle = closestAngle(curr_point, dest_point);
-//		System.out.println("closest_angle = " + move_angle);
+		var move_angle = closestAngle(lon, lat, dest_lon, dest_lat);
 		
 		// prevent from returning to the same point
-		boolean stall;
-		if (last_angle == null) {
-			stall = false;
-		} else {
-			stall = last_angle.equals(angle360(move_angle - 180));
-		}
+		var stall = last_angle >= 0 && last_angle == angle360(move_angle - 180);
 		
 		// if next move forbidden or about to get stuck  
-		if (forbidden(curr_point, move_angle) || stall) {
-//			System.out.println("Move found to be forbidden, move_angle = " + move_angle);
-			
-			// keep track of angles already ruled out 
-			var tried_angles = new ArrayList<Integer>();
-			tried_angles.add(move_angle);
-			if (last_angle != null) {
-				tried_angles.add(angle360(last_angle - 180));
+		if (forbidden(lon, lat, move_angle) || stall) {
+			// keep track of angles already ruled out, one bit per direction 
+			var tried = new TriedAngles();
+			tried.add(move_angle);
+			if (last_angle >= 0) {
+				tried.add(angle360(last_angle - 180));
 			}
 			
 			// find another allowed angle switching to more advanced decision making
-			move_angle = nextBestAngle(curr_point, dest_point, move_angle, tried_angles);
+			move_angle = nextBestAngle(lon, lat, dest_lon, dest_lat, move_angle, tried, random);
 		}
 		
 		return move_angle;
@@ -165,37 +342,32 @@ public class Path {
 	 * Determine next available point. Keeps increasing/decreasing the angle until not forbidden.
 	 * Then returns better one.
 	 * 
-	 * @param curr_point current location
-	 * @param dest_point destination location
+	 * @param lon longitude of the current location
+	 * @param lat latitude of the current location
+	 * @param dest_lon longitude of the destination
+	 * @param dest_lat latitude of the destination
 	 * @param closest_angle the angle closest to a straight line but resulting in a forbidden move
-	 * @param angles_tried list of already discarded angles
+	 * @param tried already discarded angles
+	 * @param random source of randomness for breaking ties, or null
 	 * @return next best angle
 	 */
-	private Integer nextBestAngle(Point curr_point, Point dest_point, Integer closest_angle,
-			ArrayList<Integer> angles_tried) {
-		
-		// keep track of discarded angles
-		var tried_angles = new ArrayList<Integer>(angles_tried);
-		var considered_angles = new ArrayList<Integer>();
-		
+	private int nextBestAngle(double lon, double lat, double dest_lon, double dest_lat, int closest_angle,
+			TriedAngles tried, Random random) {
 		// find first legal angle by decreasing it
-		var decreased_angle = adjustAngle(closest_angle, -10, curr_point, tried_angles);
-		if (decreased_angle != null) {
-			considered_angles.add(decreased_angle);
-		}
-		
+		var decreased_angle = adjustAngle(closest_angle, -10, lon, lat, tried);
 		// find first legal angle by increasing it
-		var increased_angle = adjustAngle(closest_angle, 10, curr_point, tried_angles);
-		if (increased_angle != null) {
-			considered_angles.add(increased_angle);
-		}
+		var increased_angle = adjustAngle(closest_angle, 10, lon, lat, tried);
 
-		if (considered_angles.size() == 2) {
+		if (decreased_angle >= 0 && increased_angle >= 0) {
 			// if two angles possible, decide based on multiple factors
-			return angleBasedOnPoints(decreased_angle, increased_angle, curr_point, dest_point);
+			return angleBasedOnPoints(decreased_angle, increased_angle, lon, lat, dest_lon, dest_lat, random);
+		} else if (decreased_angle >= 0) {
+			return decreased_angle;
+		} else if (increased_angle >= 0) {
+			return increased_angle;
 		} else {
-			// if only one angle found, return it
-			return considered_angles.get(0);
+			// trapped, every direction is forbidden
+			return closest_angle;
 		}
 	}
 
@@ -209,41 +381,47 @@ public class Path {
 	 *  
 	 *  These factors are given weights: 2, 2, 2, 1 respectively. 
 	 *  If the ratio is similar for both angles,the distance weight
-	 *  is increased by one
+	 *  is increased by one. A tie goes to the increased angle, or to a random one if random is given.
 	 * 
 	 * @param decreased_angle one angle to consider
 	 * @param increased_angle another angle to consider
-	 * @param curr_point current location
-	 * @param dest_point destination point
+	 * @param lon longitude of the current location
+	 * @param lat latitude of the current location
+	 * @param dest_lon longitude of the destination point
+	 * @param dest_lat latitude of the destination point
+	 * @param random source of randomness for breaking ties, or null
 	 * @return the better scoring angle
 	 */
-	private Integer angleBasedOnPoints(int decreased_angle, int increased_angle, Point curr_point, Point dest_point) {
+	private int angleBasedOnPoints(int decreased_angle, int increased_angle, double lon, double lat,
+			double dest_lon, double dest_lat, Random random) {
 		// points after moving in direction of considered angle			
-		var decreased_angle_point = move(curr_point, decreased_angle);
-		var increased_angle_point = move(curr_point, increased_angle);
+		var decreased_lon = lon + delta_lon[decreased_angle / 10];
+		var decreased_lat = lat + delta_lat[decreased_angle / 10];
+		var increased_lon = lon + delta_lon[increased_angle / 10];
+		var increased_lat = lat + delta_lat[increased_angle / 10];
 
 		// default angle to destination from the point after move in direction of angle
-		var closest_angle_for_decreased = closestAngle(decreased_angle_point, dest_point); 
-		var closest_angle_for_increased = closestAngle(increased_angle_point, dest_point); 
+		var closest_angle_for_decreased = closestAngle(decreased_lon, decreased_lat, dest_lon, dest_lat); 
+		var closest_angle_for_increased = closestAngle(increased_lon, increased_lat, dest_lon, dest_lat); 
 
 		// next default move forbidden
-		var next_move_for_decreased_forbidden = forbidden(decreased_angle_point, closest_angle_for_decreased);
-		var next_move_for_greater_forbidden = forbidden(increased_angle_point, closest_angle_for_increased);
+		var next_move_for_decreased_forbidden = forbidden(decreased_lon, decreased_lat, closest_angle_for_decreased);
+		var next_move_for_greater_forbidden = forbidden(increased_lon, increased_lat, closest_angle_for_increased);
 		
 		// Ratios forbidden/available
-		var angle_ratio_for_decreased = ratioOfForbidden(decreased_angle_point);
-		var angle_ratio_for_increased = ratioOfForbidden(increased_angle_point);
+		var angle_ratio_for_decreased = ratioOfForbidden(decreased_lon, decreased_lat);
+		var angle_ratio_for_increased = ratioOfForbidden(increased_lon, increased_lat);
 
 		// Calculate difference between considered angle and closest one
-		var exact_angle_closest = angle(curr_point, dest_point);
-		var exact_angle_decreased = angle(curr_point, decreased_angle_point);
-		var exact_angle_increased = angle(curr_point, increased_angle_point);
+		var exact_angle_closest = angle(lon, lat, dest_lon, dest_lat);
+		var exact_angle_decreased = angle(lon, lat, decreased_lon, decreased_lat);
+		var exact_angle_increased = angle(lon, lat, increased_lon, increased_lat);
 		var decreased_angle_comparison = Math.abs(exact_angle_closest-exact_angle_decreased);
 		var increased_angle_comparison = Math.abs(exact_angle_increased-exact_angle_closest);
 
 		// Calculate distance to dest point from point after move in considered angle 
-		var decreased_angle_distance = distance(dest_point, move(curr_point, decreased_angle));
-		var increased_angle_distance = distance(dest_point, move(curr_point, increased_angle));
+		var decreased_angle_distance = distance(dest_lon, dest_lat, decreased_lon, decreased_lat);
+		var increased_angle_distance = distance(dest_lon, dest_lat, increased_lon, increased_lat);
 
 		// Score the considered angles
 		var decreased_points_score = 0;
@@ -277,6 +455,8 @@ public class Path {
 		// Choose the angle having more points
 		if (decreased_points_score > increased_points_score) {
 			return decreased_angle;
+		} else if (decreased_points_score == increased_points_score && random != null && random.nextBoolean()) {
+			return decreased_angle;
 		} else {
 			return increased_angle;
 		}
@@ -287,40 +467,41 @@ public class Path {
 	 * 
 	 * @param angle the angle to adjust
 	 * @param step either +10 or -10
-	 * @param curr_point current location
-	 * @param tried_angles list of angles already discarded
-	 * @return first allowed angle 
+	 * @param lon longitude of the current location
+	 * @param lat latitude of the current location
+	 * @param tried angles already discarded
+	 * @return first allowed angle, or -1 if there is none 
 	 */
-	private Integer adjustAngle(int angle, int step, Point curr_point, ArrayList<Integer> tried_angles) {
+	private int adjustAngle(int angle, int step, double lon, double lat, TriedAngles tried) {
 		var adjusted_angle = angle;
-		while(tried_angles.size() < 36) {
+		while (tried.count < 36 && !tried.all()) {
 			adjusted_angle = angle360(adjusted_angle + step);
-			if (!tried_angles.contains(adjusted_angle)) {
-				tried_angles.add(adjusted_angle);
-				if (!forbidden(curr_point, adjusted_angle)) {
+			if (!tried.contains(adjusted_angle)) {
+				tried.add(adjusted_angle);
+				if (!forbidden(lon, lat, adjusted_angle)) {
 					return adjusted_angle;
 				}
 			}
 		}
-		return null;
+		return -1;
 	}
 	
 	/**
 	 * Choose a multiple of 10 angle closest to represent the straight line from pt1 to pt2
 	 * 
-	 * @param pt1 starting point
-	 * @param pt2 end point
+	 * @param lon1 longitude of the starting point
+	 * @param lat1 latitude of the starting point
+	 * @param lon2 longitude of the end point
+	 * @param lat2 latitude of the end point
 	 * @return Returns the closest angle being multiple of 10
 	 */
-	private Integer closestAngle(Point pt1, Point pt2) {
+	private static int closestAngle(double lon1, double lat1, double lon2, double lat2) {
 		// get the exact angle
-		var angle = angle(pt1, pt2);
+		var angle = angle(lon1, lat1, lon2, lat2);
 		// round up to an angle that's a multiple of 10
 		var approx_angle = (int) (10 * (Math.round(angle / 10)));
 		// convert positive between 0 and 360
-		approx_angle = angle360(approx_angle);
-
-		return approx_angle;
+		return angle360(approx_angle);
 	}
 
 	/**
@@ -329,121 +510,85 @@ public class Path {
 	 * @param angle is an angle in degrees
 	 * @return returns an angle that is in [0, 360) degrees
 	 */
-	private Integer angle360(Integer angle) {
+	private static int angle360(int angle) {
 		return (((angle % 360) + 360) % 360);
 	}
 	
 	/**
 	 * Compute the exact angle between two points on a map with 0 = west, 90 = north
 	 * 
-	 * @param pt1 first point
-	 * @param pt2 second point
+	 * @param lon1 longitude of the first point
+	 * @param lat1 latitude of the first point
+	 * @param lon2 longitude of the second point
+	 * @param lat2 latitude of the second point
 	 * @return angle in degrees
 	 */
-	private Double angle(Point pt1, Point pt2) {
-		var lat1 = pt1.latitude();
-		var lon1 = pt1.longitude();
-		var lat2 = pt2.latitude();
-		var lon2 = pt2.longitude();
+	private static double angle(double lon1, double lat1, double lon2, double lat2) {
 		// calculate the angle from a straight line between points
 		var rad_angle = Math.atan2(lat2 - lat1, lon2 - lon1);
-		var deg_angle = Math.toDegrees(rad_angle);
-		
-		return deg_angle;
+		return Math.toDegrees(rad_angle);
 	}
 	
 	/**
 	 * Calculates the ratio of forbidden moves out of the possible 36 angles: [forbidden moves]/[36 possible directions] 
 	 * 
-	 * @param pt the point at which to calculate the ratio
+	 * @param lon longitude of the point at which to calculate the ratio
+	 * @param lat latitude of the point at which to calculate the ratio
 	 * @return returns a ratio of forbidden directions to the number of all possible directions
 	 */
-	private Double ratioOfForbidden(Point pt) {
-		var forbidden_count = 0.;
-		for (var angle = 0; angle<360; angle=angle+10) {
-			if (forbidden(pt, angle360(angle))) {
-				forbidden_count++;
-			}
-		}
-		var ratio = forbidden_count/36.;
-		return ratio;
+	private double ratioOfForbidden(double lon, double lat) {
+		var forbidden_count = obstacles.forbiddenCount(lon, lat);
+		return forbidden_count/36.;
 	}
 	
 	/**
 	 * Checks whether a move would result inside a no fly zone or outside the confinement area, 
-	 * using the JTS library.
+	 * using the obstacle index.
 	 * 
-	 * @param from starting point
+	 * @param lon longitude of the starting point
+	 * @param lat latitude of the starting point
 	 * @param angle direction of the move
 	 * @return Returns true if move is forbidden, false, otherwise
 	 */
-	private boolean forbidden(Point from, int angle) {
-		// initialise JTS stuff
-		var gf = new GeometryFactory();
-		var csf = gf.getCoordinateSequenceFactory();
-		
-		// Represent the MOVE
-		var start_jts_coor = new Coordinate(from.longitude(), from.latitude());
-		var end_pt = move(from, angle);
-		var end_jts_coor = new Coordinate(end_pt.longitude(), end_pt.latitude());
-		Coordinate[] move_coordinate_sequence = { start_jts_coor, end_jts_coor };
-		var jts_move_coordinate_sequence = csf.create(move_coordinate_sequence);
-		// construct a JTS LineString to represent the move
-		var move_line = gf.createLineString(jts_move_coordinate_sequence);
-
-		// Represent the CONFINEMENT AREA
-		var nw_pt = new Coordinate(-3.192473, 55.946233);
-		var sw_pt = new Coordinate(-3.192473, 55.942617);
-		var se_pt = new Coordinate(-3.184319, 55.942617);
-		var ne_pt = new Coordinate(-3.184319, 55.946233);
-		Coordinate[] campus_coordinate_sequence = { nw_pt, sw_pt, se_pt, ne_pt, nw_pt };
-		var jts_campus_coordinate_sequence = csf.create(campus_coordinate_sequence);
-		// construct the confinement area JTS LinearRing
-		var confinement_area = gf.createLinearRing(jts_campus_coordinate_sequence);
-		
-		// CHECKS
-		// check for intersection with the confinement area
-		if (move_line.intersects(confinement_area)) {
-			return true;
-		}
-		// check for intersection with any of the no fly zones
-		for (var nfz : no_fly_zones) {
-			if (move_line.intersects(nfz)) {
-				return true;
-			}
-		}
-		return false;
-	}
-	
-	/**
-	 * Calculates the location resulting from moving along the specified path
-	 * @param pt starting point
-	 * @param path the path to follow
-	 * @return Returns resulting location Point
-	 */
-	private Point moveAlongPath(Point pt, ArrayList<PathStep> path) {
-		var curr_point = pt;
-		for (var step : path) {
-			curr_point = move(curr_point, step.angle);
-		}
-		return curr_point;
+	private boolean forbidden(double lon, double lat, int angle) {
+		return obstacles.forbidden(lon, lat, angle);
 	}
 
 	/**
 	 * Calculates the location resulting from a single move in direction of the angle
 	 * 
 	 * @param start_point the point from which to move 
-	 * @param angle the direction of the move
+	 * @param angle the direction of the move in degrees; a multiple of 10 from 0 to 350 is looked up
+	 *              in the table of the allowed directions, any other angle is computed
 	 * @return the resulting new location Point
 	 */
 	public static Point move(Point start_point, Integer angle) {
+		// the table holds the same values the trigonometry gives for the allowed directions
+		if (angle >= 0 && angle <= 350 && angle % 10 == 0) {
+			return Point.fromLngLat(start_point.longitude() + delta_lon[angle / 10],
+					start_point.latitude() + delta_lat[angle / 10]);
+		}
 		var rad_angle = Math.toRadians(angle);
 		var new_lon = start_point.longitude() + move_length * Math.cos(rad_angle);
 		var new_lat = start_point.latitude() + move_length * Math.sin(rad_angle);
 
-		var end_point = Point.fromLngLat(new_lon, new_lat);
+		return Point.fromLngLat(new_lon, new_lat);
+	}
 
-		return end_point;
+	/**
+	 * Determines the order in which to visit sensors. The cost of travelling between every pair
+	 * of sensors is the number of moves the drone needs to avoid the no fly zones on the way,
+	 * and the order with the fewest moves in total is searched for within the time limit. 
+	 * 
+	 * @param random source of randomness for the starting order, or null
+	 * @return Returns an ordered ArrayList of SensorLocations
+	 */
+	private ArrayList<SensorLocation> optimiseOrder(Random random) {
+		var ordered_sensors = new ArrayList<SensorLocation>();
+		for (var node : tourOptimiser().optimise(random)) {
+			ordered_sensors.add(sensors.get(node - 1));
+		}
+		return ordered_sensors;
 	}
 
 	/**
@@ -452,53 +597,91 @@ public class Path {
 	 * 
 	 * @return Returns an ordered ArrayList of SensorLocations
 	 */
-	private ArrayList<SensorLocation> chooseOrder() {
+	private ArrayList<SensorLocation> nearestOrder() {
 		// set up ArrayLists 
 		var points_given = new ArrayList<SensorLocation>(sensors);
 		var ordered_points = new ArrayList<SensorLocation>();
-		// fix the number of sensors to order
-		var no_points = points_given.size();
-
-		// choose the first sensor to go to
-		var first_sensor = chooseClosest(points_given, init_loc);
-		ordered_points.add(first_sensor);
-		points_given.remove(first_sensor);
-
-		// Choose order for the remaining sensors
-		var current_point = first_sensor; //first_sensor;
-		for (var i = 0; i < no_points - 1; i++) {
-			var closest = chooseClosest(points_given, current_point.point);
+
+		// Choose the order starting from the initial location
+		var curr_lon = init_loc.longitude();
+		var curr_lat = init_loc.latitude();
+		while (!points_given.isEmpty()) {
+			var closest = chooseClosest(points_given, curr_lon, curr_lat);
 			ordered_points.add(closest);
 			points_given.remove(closest);
-			current_point = closest;
+			curr_lon = closest.point.longitude();
+			curr_lat = closest.point.latitude();
 		}
 
-
 		return ordered_points;
 	}
 
 	/**
 	 * Chooses a point from an ArrayList of Sensor Locations that closes to the specified point
 	 * @param points is an ArrayList of SensorLocations
-	 * @param ipt is a Point to which the distance is measured
-	 * @return returns a SensorLocation that is closest to point ipt
+	 * @param lon longitude of the point to which the distance is measured
+	 * @param lat latitude of the point to which the distance is measured
+	 * @return returns a SensorLocation that is closest to the point
 	 */
-	private SensorLocation chooseClosest(ArrayList<SensorLocation> points, Point ipt) {
-		// initiate list
-		var distances = new ArrayList<Double>();
+	private static SensorLocation chooseClosest(ArrayList<SensorLocation> points, double lon, double lat) {
+		SensorLocation closest = null;
+		var min_dist = Double.POSITIVE_INFINITY;
 
-		// measure distance between all points
+		// measure distance between all points and keep the first closest
 		for (var pt : points) {
-			distances.add(distance(ipt, pt.point));
+			var dist = distance(lon, lat, pt.point.longitude(), pt.point.latitude());
+			if (dist < min_dist) {
+				min_dist = dist;
+				closest = pt;
+			}
 		}
 
-		// choose the closest
-		var min_dist = Collections.min(distances);
-		var closest = points.get(distances.indexOf(min_dist));
-
 		return closest;
 	}
 
+	/**
+	 * Builds the tour optimiser, with its matrix of costs between sensors, on first use
+	 * 
+	 * @return the tour optimiser, in which node 0 is the initial location and node i is sensor i - 1
+	 */
+	synchronized TourOptimiser tourOptimiser() {
+		if (tour_optimiser == null) {
+			var size = sensors.size() + 1;
+			var nodes_lon = new double[size];
+			var nodes_lat = new double[size];
+			nodes_lon[0] = init_loc.longitude();
+			nodes_lat[0] = init_loc.latitude();
+			for (var i = 1; i < size; i++) {
+				nodes_lon[i] = sensors.get(i - 1).point.longitude();
+				nodes_lat[i] = sensors.get(i - 1).point.latitude();
+			}
+	
+			tour_optimiser = new TourOptimiser(size, (from, to) -> legCost(nodes_lon[from], nodes_lat[from],
+					nodes_lon[to], nodes_lat[to], to == 0 ? return_range : sensor_range), optimise_time_limit);
+		}
+		return tour_optimiser;
+	}
+
+	/**
+	 * Counts the moves needed to get from one location to within proximity of another.
+	 * A leg that cannot be completed within the move limit costs twice the limit.
+	 * 
+	 * @param from_lon longitude of the start
+	 * @param from_lat latitude of the start
+	 * @param to_lon longitude of the destination
+	 * @param to_lat latitude of the destination
+	 * @param proximity the maximum distance from the destination
+	 * @return number of moves
+	 */
+	int legCost(double from_lon, double from_lat, double to_lon, double to_lat, double proximity) {
+		double[] loc = { from_lon, from_lat };
+		var moves = twoPointsPath(loc, to_lon, to_lat, null, proximity, max_moves, null, null);
+		if (distance(loc[0], loc[1], to_lon, to_lat) < proximity) {
+			return moves;
+		}
+		return 2 * max_moves;
+	}
+
 	/**
 	 * Calculates distance between two points using the Pythagoras's theorem
 	 * 
@@ -506,15 +689,45 @@ public class Path {
 	 * @param pt2 Point 2
 	 * @return distance in degrees
 	 */
-	public static Double distance(Point pt1, Point pt2) {
-		var lon1 = pt1.longitude();
-		var lat1 = pt1.latitude();
-		var lon2 = pt2.longitude();
-		var lat2 = pt2.latitude();
+	public static double distance(Point pt1, Point pt2) {
+		return distance(pt1.longitude(), pt1.latitude(), pt2.longitude(), pt2.latitude());
+	}
+
+	/**
+	 * Calculates distance between two locations using the Pythagoras's theorem
+	 * 
+	 * @param lon1 longitude of location 1
+	 * @param lat1 latitude of location 1
+	 * @param lon2 longitude of location 2
+	 * @param lat2 latitude of location 2
+	 * @return distance in degrees
+	 */
+	static double distance(double lon1, double lat1, double lon2, double lat2) {
+		var d_lon = lon2 - lon1;
+		var d_lat = lat2 - lat1;
+		return Math.sqrt(d_lon * d_lon + d_lat * d_lat);
+	}
+	
+	/**
+	 * Keeps track of the directions already ruled out when looking for an allowed angle.
+	 * The count includes repeated additions, as the search gives up after 36 attempts.
+	 */
+	private static class TriedAngles {
+		long mask = 0;
+		int count = 0;
 
-		var distance = Math.sqrt(Math.pow((lon2 - lon1), 2) + Math.pow((lat2 - lat1), 2));
+		void add(int angle) {
+			mask |= 1L << (angle / 10);
+			count++;
+		}
+
+		boolean contains(int angle) {
+			return (mask & (1L << (angle / 10))) != 0;
+		}
 
-		return distance;
+		boolean all() {
+			return mask == (1L << 36) - 1;
+		}
 	}
 	
 }
@@ -0,0 +1,19 @@
+package uk.ac.ed.inf.aqmaps;
+
+/**
+ * The ways in which Path can find the moves between two locations
+ * 
+ * @author Michal Sadowski
+ *
+ */
+public enum PlannerMode {
+	/**
+	 * steer towards the destination, choosing another direction when the move is forbidden
+	 */
+	GREEDY,
+	/**
+	 * search for the fewest moves over the lattice of reachable locations with LatticeSearch,
+	 * falling back to steering if the search fails
+	 */
+	ASTAR
+}
@@ -0,0 +1,417 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The readings of many days stored as columns in one file, which is mapped into memory when loaded,
+ * and queried over the mapped columns. Each row is the reading of one sensor on one day; rows are
+ * ordered by day, and a day index gives the first row of each day. Sensors are stored as ids into
+ * a dictionary of their w3w locations.
+ *
+ * The file is little endian and laid out as:
+ * header: magic "AQRA", version, first day (epoch day), number of days d, number of rows r,
+ *         number of sensors w, length of the location strings, padding (8 ints)
+ * day index: first row of each day and the number of rows[d + 1] (ints)
+ * columns: sensor id[r] (unsigned shorts, padded to 4 bytes), battery[r], reading[r] (floats,
+ *          reading NaN if not a number)
+ * dictionary: offset[w + 1] into the strings (ints), then the UTF-8 location strings
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class ReadingsArchive {
+
+	private final static int file_magic = 0x41515241; // "AQRA"
+	private final static int file_version = 1;
+	private final static int header_size = 8 * Integer.BYTES;
+	// battery level below which the readings of a sensor are not trusted, as on the map
+	private final static float low_battery = 10;
+
+	private final LocalDate first_day;
+	private final int day_count;
+	private final int row_count;
+	private final IntBuffer day_index;
+	private final ShortBuffer sensor;
+	private final FloatBuffer battery;
+	private final FloatBuffer reading;
+	private final String[] dictionary;
+	private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+	/**
+	 * @param buffer the contents of an archive file, little endian
+	 * @throws IOException if it is not an archive of this version
+	 */
+	private ReadingsArchive(ByteBuffer buffer) throws IOException {
+		if (buffer.limit() < header_size || buffer.getInt(0) != file_magic || buffer.getInt(4) != file_version) {
+			throw new IOException("Not a readings archive of version " + file_version);
+		}
+		first_day = LocalDate.ofEpochDay(buffer.getInt(8));
+		day_count = buffer.getInt(12);
+		row_count = buffer.getInt(16);
+		var sensor_count = buffer.getInt(20);
+		var strings_length = buffer.getInt(24);
+
+		// views of the sections of the file
+		var day_index_start = header_size;
+		var sensor_start = day_index_start + (day_count + 1) * Integer.BYTES;
+		var battery_start = sensor_start + padded(row_count * Short.BYTES);
+		var reading_start = battery_start + row_count * Float.BYTES;
+		var offsets_start = reading_start + row_count * Float.BYTES;
+		var strings_start = offsets_start + (sensor_count + 1) * Integer.BYTES;
+		if (strings_start + strings_length > buffer.limit()) {
+			throw new IOException("Readings archive is truncated");
+		}
+		day_index = view(buffer, day_index_start).asIntBuffer();
+		sensor = view(buffer, sensor_start).asShortBuffer();
+		battery = view(buffer, battery_start).asFloatBuffer();
+		reading = view(buffer, reading_start).asFloatBuffer();
+
+		// the dictionary is small, so decode it at once
+		dictionary = new String[sensor_count];
+		for (var id = 0; id < sensor_count; id++) {
+			var start = buffer.getInt(offsets_start + id * Integer.BYTES);
+			var end = buffer.getInt(offsets_start + (id + 1) * Integer.BYTES);
+			var bytes = new byte[end - start];
+			view(buffer, strings_start + start).get(bytes);
+			dictionary[id] = new String(bytes, StandardCharsets.UTF_8);
+			ids.put(dictionary[id], id);
+		}
+	}
+
+	/**
+	 * Reads the readings of every day of a date range and saves them as an archive, replacing the file
+	 * atomically. Days the source has no data for are stored without rows.
+	 *
+	 * @param source where to get the documents from
+	 * @param first first day to read
+	 * @param last last day to read
+	 * @param file the file to save to
+	 * @throws IOException if the file cannot be written
+	 * @throws ServerException if a day cannot be got for another reason than not existing
+	 */
+	public static void ingest(DataSource source, LocalDate first, LocalDate last, File file) throws IOException {
+		// request all days at once, the source limits how many are in flight
+		var days = new ArrayList<CompletableFuture<DayReadings>>();
+		for (var day = first; !day.isAfter(last); day = day.plusDays(1)) {
+			var url_params = String.format("/maps/%04d/%02d/%02d/air-quality-data.json", day.getYear(),
+					day.getMonthValue(), day.getDayOfMonth());
+			days.add(source.fetch(url_params, Server::parseReadings));
+		}
+
+		var day_index = new int[days.size() + 1];
+		var sensor = new short[64];
+		var battery = new float[64];
+		var reading = new float[64];
+		var rows = 0;
+		var dictionary = new ArrayList<String>();
+		var ids = new HashMap<String, Integer>();
+		for (var d = 0; d < days.size(); d++) {
+			day_index[d] = rows;
+			var readings = missingAsEmpty(days.get(d));
+			if (readings == null) {
+				continue;
+			}
+			for (var i = 0; i < readings.size(); i++) {
+				if (rows == sensor.length) {
+					sensor = Arrays.copyOf(sensor, 2 * rows);
+					battery = Arrays.copyOf(battery, 2 * rows);
+					reading = Arrays.copyOf(reading, 2 * rows);
+				}
+				var id = ids.get(readings.location(i));
+				if (id == null) {
+					id = dictionary.size();
+					if (id > 0xffff) {
+						throw new IllegalStateException("Too many sensors for the archive");
+					}
+					dictionary.add(readings.location(i));
+					ids.put(readings.location(i), id);
+				}
+				sensor[rows] = (short) (int) id;
+				battery[rows] = (float) readings.battery(i);
+				reading[rows] = (float) readings.reading(i);
+				rows++;
+			}
+		}
+		day_index[days.size()] = rows;
+
+		// encode the dictionary to know the size of the file
+		var strings = new byte[dictionary.size()][];
+		var strings_length = 0;
+		for (var id = 0; id < strings.length; id++) {
+			strings[id] = dictionary.get(id).getBytes(StandardCharsets.UTF_8);
+			strings_length += strings[id].length;
+		}
+		var buffer = ByteBuffer.allocate(header_size + day_index.length * Integer.BYTES + padded(rows * Short.BYTES)
+				+ 2 * rows * Float.BYTES + (strings.length + 1) * Integer.BYTES + strings_length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(file_magic).putInt(file_version).putInt((int) first.toEpochDay()).putInt(days.size())
+				.putInt(rows).putInt(strings.length).putInt(strings_length).putInt(0);
+		for (var start : day_index) {
+			buffer.putInt(start);
+		}
+		for (var r = 0; r < rows; r++) {
+			buffer.putShort(sensor[r]);
+		}
+		buffer.position(buffer.position() + padded(rows * Short.BYTES) - rows * Short.BYTES);
+		for (var r = 0; r < rows; r++) {
+			buffer.putFloat(battery[r]);
+		}
+		for (var r = 0; r < rows; r++) {
+			buffer.putFloat(reading[r]);
+		}
+		var offset = 0;
+		buffer.putInt(offset);
+		for (var string : strings) {
+			offset += string.length;
+			buffer.putInt(offset);
+		}
+		for (var string : strings) {
+			buffer.put(string);
+		}
+		buffer.flip();
+
+		AtomicFile.write(file, out -> {
+			var channel = Channels.newChannel(out);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		});
+	}
+
+	/**
+	 * Maps an archive file into memory
+	 *
+	 * @param file the file to load
+	 * @return the archive
+	 * @throws IOException if the file cannot be read or is not an archive of this version
+	 */
+	public static ReadingsArchive load(File file) throws IOException {
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// the mapping stays valid after the channel is closed
+			var mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			return new ReadingsArchive(mapped.order(ByteOrder.LITTLE_ENDIAN));
+		}
+	}
+
+	/**
+	 * @return the first day of the archive
+	 */
+	public LocalDate getFirstDay() {
+		return first_day;
+	}
+
+	/**
+	 * @return number of days in the archive, including days without readings
+	 */
+	public int getDayCount() {
+		return day_count;
+	}
+
+	/**
+	 * @return number of readings in the archive
+	 */
+	public int getRowCount() {
+		return row_count;
+	}
+
+	/**
+	 * @return number of distinct sensors in the archive
+	 */
+	public int getSensorCount() {
+		return dictionary.length;
+	}
+
+	/**
+	 * @param id id of a sensor
+	 * @return w3w location of the sensor
+	 */
+	public String sensor(int id) {
+		return dictionary[id];
+	}
+
+	/**
+	 * @param w3w w3w location of a sensor
+	 * @return id of the sensor, or -1 if it is not in the archive
+	 */
+	public int sensorId(String w3w) {
+		var id = ids.get(w3w);
+		return id != null ? id : -1;
+	}
+
+	/**
+	 * Gives the readings of one sensor over a date range, one entry for each day it has a reading on
+	 *
+	 * @param w3w w3w location of the sensor
+	 * @param from first day of the range
+	 * @param to last day of the range
+	 * @return the time series, empty if the sensor is not in the archive
+	 */
+	public Series series(String w3w, LocalDate from, LocalDate to) {
+		var id = sensorId(w3w);
+		var first = firstDay(from);
+		var last = lastDay(to);
+		var days = new int[Math.max(0, last - first + 1)];
+		var sensor_battery = new float[days.length];
+		var sensor_reading = new float[days.length];
+		var count = 0;
+		for (var d = first; d <= last && id >= 0; d++) {
+			for (var r = day_index.get(d); r < day_index.get(d + 1); r++) {
+				if ((sensor.get(r) & 0xffff) == id) {
+					days[count] = (int) first_day.toEpochDay() + d;
+					sensor_battery[count] = battery.get(r);
+					sensor_reading[count] = reading.get(r);
+					count++;
+					break;
+				}
+			}
+		}
+		return new Series(Arrays.copyOf(days, count), Arrays.copyOf(sensor_battery, count),
+				Arrays.copyOf(sensor_reading, count));
+	}
+
+	/**
+	 * Aggregates the readings of each day of a date range. Readings of sensors with a low battery
+	 * are counted, but left out of the statistics of the readings.
+	 *
+	 * @param from first day of the range
+	 * @param to last day of the range
+	 * @return the statistics of each day of the range within the archive
+	 */
+	public DayStats aggregate(LocalDate from, LocalDate to) {
+		var first = firstDay(from);
+		var last = lastDay(to);
+		var stats = new DayStats(first_day.plusDays(first), Math.max(0, last - first + 1));
+		for (var d = first; d <= last; d++) {
+			var s = d - first;
+			var sum = 0.0;
+			var min = Float.POSITIVE_INFINITY;
+			var max = Float.NEGATIVE_INFINITY;
+			var start = day_index.get(d);
+			var end = day_index.get(d + 1);
+			for (var r = start; r < end; r++) {
+				var value = reading.get(r);
+				if (battery.get(r) < low_battery) {
+					stats.low_battery[s]++;
+				} else if (!Float.isNaN(value)) {
+					stats.valid[s]++;
+					sum += value;
+					min = Math.min(min, value);
+					max = Math.max(max, value);
+				}
+			}
+			stats.sensors[s] = end - start;
+			stats.mean[s] = stats.valid[s] > 0 ? sum / stats.valid[s] : Double.NaN;
+			stats.min[s] = stats.valid[s] > 0 ? min : Float.NaN;
+			stats.max[s] = stats.valid[s] > 0 ? max : Float.NaN;
+		}
+		return stats;
+	}
+
+	/**
+	 * The readings of one sensor, as columns with an entry for each day
+	 */
+	public static class Series {
+		// days as epoch days
+		public final int[] days;
+		public final float[] battery;
+		// NaN if not a number
+		public final float[] reading;
+
+		Series(int[] days, float[] battery, float[] reading) {
+			this.days = days;
+			this.battery = battery;
+			this.reading = reading;
+		}
+	}
+
+	/**
+	 * Statistics of the readings of consecutive days, as columns with an entry for each day
+	 */
+	public static class DayStats {
+		public final LocalDate first_day;
+		// number of sensors with an entry on the day
+		public final int[] sensors;
+		// number of sensors with a good battery and a reading
+		public final int[] valid;
+		// number of sensors with a low battery
+		public final int[] low_battery;
+		// statistics of the valid readings, NaN if there are none
+		public final double[] mean;
+		public final float[] min;
+		public final float[] max;
+
+		DayStats(LocalDate first_day, int days) {
+			this.first_day = first_day;
+			this.sensors = new int[days];
+			this.valid = new int[days];
+			this.low_battery = new int[days];
+			this.mean = new double[days];
+			this.min = new float[days];
+			this.max = new float[days];
+		}
+	}
+
+	/**
+	 * @return index of the first day of the archive not before the date
+	 */
+	private int firstDay(LocalDate from) {
+		return (int) Math.max(0, from.toEpochDay() - first_day.toEpochDay());
+	}
+
+	/**
+	 * @return index of the last day of the archive not after the date
+	 */
+	private int lastDay(LocalDate to) {
+		return (int) Math.min(day_count - 1, to.toEpochDay() - first_day.toEpochDay());
+	}
+
+	/**
+	 * Waits for a day, treating a day the source has no document for as a day without readings
+	 *
+	 * @return the readings, or null if there is no document
+	 */
+	private static DayReadings missingAsEmpty(CompletableFuture<DayReadings> day) {
+		try {
+			return day.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof ServerException && ((ServerException) e.getCause()).getStatus() == 404) {
+				return null;
+			}
+			if (e.getCause() instanceof ServerException) {
+				throw (ServerException) e.getCause();
+			}
+			throw new ServerException("Processing a day failed", e.getCause());
+		}
+	}
+
+	/**
+	 * @return a little endian view of the buffer starting at a position
+	 */
+	private static ByteBuffer view(ByteBuffer buffer, int start) {
+		return buffer.duplicate().position(start).slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * @return the length rounded up to a multiple of 4 bytes
+	 */
+	private static int padded(int length) {
+		return (length + 3) & ~3;
+	}
+}
@@ -0,0 +1,236 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Entry point for checking the flight logs of every day of a date range, e.g. the ones saved by
+ * BatchApp, with FlightValidator. The logs are read from a directory, in any of the formats of
+ * -Daqmaps.log, and checked in parallel. A day without the log of a single drone is checked as
+ * the day of a fleet, from the logs flightpath-DD-MM-YYYY-N of its drones: each drone must follow
+ * the rules of its own flight, and every sensor must be read by one of them. The violations of
+ * every day are saved as a JSON report,
+ * and the run exits with status 1 if any flight broke a rule or any log could not be checked, so
+ * that it can be used as a gate.
+ *
+ * Reads the aqmaps.data, aqmaps.http.*, aqmaps.w3wcache, aqmaps.zonecache, aqmaps.metrics* and
+ * aqmaps.parallelism system properties as BatchApp does.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class ReplayApp {
+
+	private static final DateTimeFormatter day_format = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+	// the names of the flight log of a day, in the order they are looked for
+	private static final String[] log_suffixes = { ".txt", ".txt.gz", ".bin" };
+
+	/**
+	 * @param args should be nine arguments: first day, last day, port, directory of the flight logs
+	 *             and report file in format: [DD] [MM] [YYYY] [DD] [MM] [YYYY] [port] [log directory]
+	 *             [report file]
+	 */
+	public static void main(String[] args) {
+		// Check for validity of command line arguments
+		if (args.length != 9) {
+			System.err.println("Wrong number of arguments given. Usage:");
+			System.err.println("java -cp aqmaps.jar uk.ac.ed.inf.aqmaps.ReplayApp [DD] [MM] [YYYY] [DD] [MM] [YYYY]"
+					+ " [port] [log directory] [report file]");
+			return;
+		}
+		// Parse arguments
+		var first_day = LocalDate.of(Integer.parseInt(args[2]), Integer.parseInt(args[1]), Integer.parseInt(args[0]));
+		var last_day = LocalDate.of(Integer.parseInt(args[5]), Integer.parseInt(args[4]), Integer.parseInt(args[3]));
+		var port = Integer.parseInt(args[6]);
+		var log_dir = new File(args[7]);
+		var report_file = new File(args[8]);
+		var source = App.dataSource(port);
+		var parallelism = Integer.getInteger("aqmaps.parallelism", Runtime.getRuntime().availableProcessors());
+
+		System.out.println("Successfully parsed arguments");
+
+		// Get the no fly zones and the caches once for all days
+		var w3w_cache = App.loadW3WCache();
+		var zone_cache = App.loadZoneCache();
+		FlightValidator validator;
+		try {
+			var zones_srv = new Server(source, date(first_day), new DayCache(1));
+			zones_srv.setZoneCache(zone_cache);
+			validator = new FlightValidator(zones_srv.getObstacleIndex());
+			App.saveZoneCache(zone_cache);
+		} catch (ServerException e) {
+			System.err.println("Could not get data from the server: " + e.getMessage());
+			App.saveMetrics();
+			System.exit(1);
+			return;
+		}
+		var day_cache = new DayCache(parallelism);
+
+		// Check the days in parallel
+		var replay_start = System.nanoTime();
+		var pool = Executors.newFixedThreadPool(parallelism);
+		var days = new ArrayList<LocalDate>();
+		var futures = new ArrayList<Future<FlightReport>>();
+		for (var day = first_day; !day.isAfter(last_day); day = day.plusDays(1)) {
+			var date = date(day);
+			days.add(day);
+			futures.add(pool.submit(() -> {
+				var srv = new Server(source, date, day_cache);
+				srv.setW3WCache(w3w_cache);
+				var log = logFile(log_dir, logName(date));
+				if (log != null) {
+					return validator.validate(FlightLogReader.read(log), srv.getHashMap());
+				}
+				return validator.validate(readFleetLogs(log_dir, date), srv.getHashMap());
+			}));
+		}
+
+		// Collect the reports in order
+		var reports = new ArrayList<FlightReport>();
+		var failures = new ArrayList<String>();
+		var total_moves = 0L;
+		var invalid = 0;
+		var failed = 0;
+		for (var i = 0; i < days.size(); i++) {
+			try {
+				var report = futures.get(i).get();
+				reports.add(report);
+				failures.add(null);
+				total_moves += report.getMoves();
+				if (!report.isValid()) {
+					invalid++;
+					System.out.println(days.get(i).format(day_format) + ": " + report.getViolations().size()
+							+ " violations, first " + report.getViolations().get(0));
+				}
+			} catch (ExecutionException e) {
+				reports.add(null);
+				failures.add(e.getCause().toString());
+				failed++;
+				System.out.println(days.get(i).format(day_format) + ": could not be checked: " + e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		pool.shutdown();
+		var replay_millis = (System.nanoTime() - replay_start) / 1_000_000;
+
+		try {
+			saveReport(report_file, days, reports, failures);
+			System.out.println("Successfully saved " + report_file);
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+			failed++;
+		}
+		App.saveW3WCache(w3w_cache);
+		App.saveMetrics();
+		System.out.println("Checked " + (days.size() - failed) + " of " + days.size() + " days with " + total_moves
+				+ " moves in " + replay_millis + " ms, " + invalid + " broke rules");
+		if (invalid > 0 || failed > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Finds a flight log
+	 *
+	 * @param name name of the log without the extension
+	 * @return the first log of that name which exists, or null if none does
+	 */
+	private static File logFile(File log_dir, String name) {
+		for (var suffix : log_suffixes) {
+			var file = new File(log_dir, name + suffix);
+			if (file.exists()) {
+				return file;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the flight logs of the drones of a fleet for a day
+	 *
+	 * @return the moves of each drone, in the order of the drones; null for a drone without a log, as
+	 *         a drone without sensors does not fly
+	 * @throws IOException if a log cannot be read, or the day has no log at all
+	 */
+	private static ArrayList<FlightTrace> readFleetLogs(File log_dir, String[] date) throws IOException {
+		// find the number of each drone with a log
+		var prefix = logName(date) + "-";
+		var names = log_dir.list();
+		var drones = new TreeMap<Integer, File>();
+		for (var name : names != null ? names : new String[0]) {
+			if (!name.startsWith(prefix)) {
+				continue;
+			}
+			for (var suffix : log_suffixes) {
+				if (!name.endsWith(suffix)) {
+					continue;
+				}
+				var number = name.substring(prefix.length(), name.length() - suffix.length());
+				if (number.matches("[1-9][0-9]{0,3}")) {
+					var drone = Integer.parseInt(number);
+					drones.putIfAbsent(drone, logFile(log_dir, prefix + drone));
+				}
+			}
+		}
+		if (drones.isEmpty()) {
+			throw new FileNotFoundException("No flight log of " + logName(date) + " in " + log_dir);
+		}
+
+		var traces = new ArrayList<FlightTrace>();
+		for (var drone = 1; drone <= drones.lastKey(); drone++) {
+			traces.add(drones.containsKey(drone) ? FlightLogReader.read(drones.get(drone)) : null);
+		}
+		return traces;
+	}
+
+	/**
+	 * @return name of the flight log of a day of a single drone, without the extension
+	 */
+	private static String logName(String[] date) {
+		return "flightpath-" + date[0] + "-" + date[1] + "-" + date[2];
+	}
+
+	/**
+	 * Saves the reports of the days as JSON, replacing the file atomically
+	 */
+	private static void saveReport(File file, ArrayList<LocalDate> days, ArrayList<FlightReport> reports,
+			ArrayList<String> failures) throws IOException {
+		AtomicFile.write(file, out -> {
+			var json = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+			json.setIndent("  ");
+			json.beginObject();
+			for (var i = 0; i < reports.size(); i++) {
+				json.name(days.get(i).format(day_format));
+				if (reports.get(i) != null) {
+					reports.get(i).writeJson(json);
+				} else {
+					json.beginObject().name("error").value(failures.get(i)).endObject();
+				}
+			}
+			json.endObject();
+			json.flush();
+		});
+	}
+
+	/**
+	 * @return the day in format: [DD, MM, YYYY]
+	 */
+	private static String[] date(LocalDate day) {
+		return day.format(day_format).split("-");
+	}
+}
@@ -1,85 +1,118 @@
 package uk.ac.ed.inf.aqmaps;
 
 import com.mapbox.geojson.Point;
-import com.mapbox.geojson.Polygon;
-import com.mapbox.geojson.FeatureCollection;
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
 import org.locationtech.jts.geom.Coordinate;
 
-import java.lang.reflect.Type;
-import com.google.gson.reflect.TypeToken;
-
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.io.IOException;
-import java.net.URI;
-
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.net.http.HttpResponse.BodyHandlers;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * It's responsible for getting data from the server
+ * It's responsible for getting data from the server. Documents are got asynchronously from a data
+ * source, so the ones needed for a day can be downloaded at the same time.
  * 
  * @author Michal Sadowski
  *
  */
 public class Server {
-	private static final HttpClient client = HttpClient.newHttpClient();
-	private int port;
+	private static final GeometryFactory gf = new GeometryFactory();
+	private DataSource source;
 	private String[] date;
+	private DayCache day_cache;
+	private W3WCache w3w_cache = new W3WCache();
+	private ZoneCache zone_cache;
+	// requests in progress, so that documents asked for twice are downloaded once
+	private CompletableFuture<DayReadings> day_request;
+	private CompletableFuture<ArrayList<Polygon>> no_fly_zones_request;
+	private final ConcurrentHashMap<String, CompletableFuture<Point>> w3w_requests = new ConcurrentHashMap<String, CompletableFuture<Point>>();
 	
 	/**
 	 * @param port port at which the server is working
 	 * @param date date for which to give readings
 	 */
 	public Server(int port, String[] date) {
-		this.port = port;
+		this(new HttpDataSource(port), date, new DayCache(1));
+	}
+
+	/**
+	 * @param source where to get the documents from
+	 * @param date date for which to give readings
+	 * @param day_cache cache of the documents of days, may be shared with servers of other days
+	 */
+	public Server(DataSource source, String[] date, DayCache day_cache) {
+		this.source = source;
 		this.date = date;
+		this.day_cache = day_cache;
 	}
 	
 	/**
-	 * Download reading data from the server for a specified sensor and data
+	 * Sets the cache checked before requesting the point of a What3Words location. By default each
+	 * server has its own cache in memory.
+	 * 
+	 * @param w3w_cache the cache, may be shared with other servers
+	 */
+	public void setW3WCache(W3WCache w3w_cache) {
+		this.w3w_cache = w3w_cache;
+	}
+
+	/**
+	 * Sets the cache of no fly zones checked before parsing the downloaded zones and before building
+	 * their obstacle index. By default there is none.
+	 * 
+	 * @param zone_cache the cache, may be shared with other servers
+	 */
+	public void setZoneCache(ZoneCache zone_cache) {
+		this.zone_cache = zone_cache;
+	}
+
+	/**
+	 * Starts downloading everything needed for the date: the data of the date, the points of its sensors
+	 * and the no fly zones. The methods giving them then wait only for what is still in flight.
+	 */
+	public void prefetch() {
+		getDayAsync().thenAccept(readings -> getPointsAsync(readings.locations()));
+		getJTSNoFlyZonesAsync();
+	}
+
+	/**
+	 * Gives reading data for a specified sensor and date, downloading the data of the date only once
 	 * 
 	 * @param from_sensor the w3w location of the server for which to return data
 	 * @return returns a reading
+	 * @throws ServerException if the data cannot be downloaded
 	 */
 	public Reading getReading(String from_sensor) {
-		// Download data from the server
-		var url_params = "/maps/" + date[2] + "/" + date[1] + "/" + date[0] + "/air-quality-data.json";
-		var jsonString = makeARequest(url_params); 
-		
-		// put JSON data into list of custom datatype
-		Type listReadingType = new TypeToken<ArrayList<Reading>>() {}.getType();
-		ArrayList<Reading> sensorReadingList = new Gson().fromJson(jsonString, listReadingType);
-		
-		for (var data : sensorReadingList) {
-			if (from_sensor.equals(data.location)) {
-				return data;
-			}
-		}
-		return null;
+		return await(getDayAsync()).get(from_sensor);
 	}
 	
 	/**
 	 * Downloads sensor locations
 	 * @return list of SensorLocation type
+	 * @throws ServerException if the data cannot be downloaded
 	 */
 	public ArrayList<SensorLocation> getSensorsLocations() {
-		// Download data from the server
-		var url_params = "/maps/" + date[2] + "/" + date[1] + "/" + date[0] + "/air-quality-data.json";
-		var jsonString = makeARequest(url_params); 
-		
-		// put JSON data into list of custom data types
-		Type listSensorLocationType = new TypeToken<ArrayList<SensorLocation>>() {}.getType();
-		ArrayList<SensorLocation> sensor_locations = new Gson().fromJson(jsonString, listSensorLocationType);
-		
-		// fill in the Point field
-		for (var sl : sensor_locations) {
-			sl.point = w3wtoPoint(sl.location);
+		var readings = await(getDayAsync());
+		var points = await(getPointsAsync(readings.locations()));
+		var sensor_locations = new ArrayList<SensorLocation>();
+		// fill in the Point field, in the order of the document
+		for (var w3wloc : readings.locations()) {
+			sensor_locations.add(new SensorLocation(w3wloc, points.get(w3wloc)));
 		}
 		return sensor_locations;
 	}	
@@ -87,24 +120,78 @@ public class Server {
 	/**
 	 * Creates a hash map in the form: [String: What3Words location] --> [MapBox Point: location on a map]
 	 * @return a hashmap
+	 * @throws ServerException if the data cannot be downloaded
 	 */
 	public HashMap<String, Point> getHashMap() {
-		var hash_map = new HashMap<String, Point>();
-		// Download data from the server
-		var url_params = "/maps/" + date[2] + "/" + date[1] + "/" + date[0] + "/air-quality-data.json";
-		var jsonString = makeARequest(url_params); 
-		
-		// copy JSON data into Java data type
-		Type listSensorLocationType = new TypeToken<ArrayList<SensorLocation>>() {}.getType();
-		ArrayList<SensorLocation> sensorW3WLocationList = new Gson().fromJson(jsonString, listSensorLocationType);
-		
-		// Populate the hash map
-		for (var sensorW3WLocation : sensorW3WLocationList) {
-			var w3wloc = sensorW3WLocation.location;
-			var degloc = w3wtoPoint(w3wloc);
-			hash_map.put(w3wloc, degloc);
+		var readings = await(getDayAsync());
+		return await(getPointsAsync(readings.locations()));
+	}
+
+	/**
+	 * Gives the readings of the date, downloading them only once
+	 * 
+	 * @return readings of the date
+	 * @throws ServerException if the data cannot be downloaded
+	 */
+	DayReadings getDayReadings() {
+		return await(getDayAsync());
+	}
+
+	/**
+	 * Gives the server the data of the date, e.g. from a MissionSnapshot, so that none of it is downloaded
+	 * 
+	 * @param readings readings of the date
+	 * @param points points of the locations of the sensors
+	 * @param no_fly_zones the no fly zones
+	 */
+	synchronized void preload(DayReadings readings, Map<String, Point> points, ArrayList<Polygon> no_fly_zones) {
+		day_request = CompletableFuture.completedFuture(readings);
+		no_fly_zones_request = CompletableFuture.completedFuture(no_fly_zones);
+		points.forEach((w3w, point) -> w3w_requests.put(w3w, CompletableFuture.completedFuture(point)));
+	}
+
+	/**
+	 * Forgets the data of the date, so that it is downloaded again when next needed
+	 */
+	public synchronized void invalidate() {
+		day_cache.invalidate(dayKey());
+		day_request = null;
+	}
+
+	/**
+	 * Gives the data of the date from the cache, downloading it on a miss
+	 * 
+	 * @return readings of the date
+	 */
+	private synchronized CompletableFuture<DayReadings> getDayAsync() {
+		// preloaded readings are not in the cache
+		if (day_request != null && day_request.isDone() && !day_request.isCompletedExceptionally()) {
+			return day_request;
+		}
+		var key = dayKey();
+		var readings = day_cache.get(key);
+		if (readings != null) {
+			Metrics.get().endpoint("maps").recordCacheHit();
+			// keep it for the following calls, so that the hit is counted once
+			day_request = CompletableFuture.completedFuture(readings);
+			return day_request;
+		}
+		// a request that failed is made again
+		if (day_request == null || day_request.isCompletedExceptionally()) {
+			var url_params = "/maps/" + date[2] + "/" + date[1] + "/" + date[0] + "/air-quality-data.json";
+			day_request = source.fetch(url_params, Server::parseReadings).thenApply(parsed -> {
+				day_cache.put(key, parsed);
+				return parsed;
+			});
 		}
-		return hash_map;
+		return day_request;
+	}
+
+	/**
+	 * @return key of the data of the date in the day cache
+	 */
+	private String dayKey() {
+		return source.location("/maps/" + date[2] + "/" + date[1] + "/" + date[0] + "/air-quality-data.json");
 	}
 
 	/**
@@ -113,111 +200,387 @@ public class Server {
 	 * 
 	 * @return a list of no fly zone JTS polygons
 	 */
-	public ArrayList<org.locationtech.jts.geom.Polygon> getJTSNoFlyZones(){
-		// get Mapbox style no-fly-zones
-		var nfzs =  getNoFlyZones();
-		
-		//initialise JTS stuff
-		var gf = new GeometryFactory();
-		var csf = gf.getCoordinateSequenceFactory();
-		
-		// create a list of JTS Polygons
-		var jts_polygons_list = new ArrayList<org.locationtech.jts.geom.Polygon>();
-		
-		// iterate through no fly zones
-		for (var nfz : nfzs.features()) {
-			// get each Mapbox polygon
-			var pol = (Polygon) nfz.geometry();
-			var pol_coors = pol.coordinates();
-			
-			// convert Mapbox coordinates to JTS coordinates
-			var jts_coors_list = new ArrayList<Coordinate>();
-			// double for loop due to Mapbox convention
-			for (var pt_list : pol_coors) {
-				for (var pt : pt_list) {
-					var jts_coor = new Coordinate(pt.longitude(), pt.latitude());
-					jts_coors_list.add(jts_coor);
+	public ArrayList<Polygon> getJTSNoFlyZones(){
+		return new ArrayList<Polygon>(await(getJTSNoFlyZonesAsync()));
+	}
+
+	/**
+	 * Builds the obstacle index of the no fly zones, through the zone cache if there is one
+	 * 
+	 * @return the index
+	 * @throws ServerException if the no fly zones cannot be downloaded
+	 */
+	public ObstacleIndex getObstacleIndex() {
+		var no_fly_zones = getJTSNoFlyZones();
+		return zone_cache != null ? zone_cache.index(no_fly_zones) : new ObstacleIndex(no_fly_zones);
+	}
+
+	/**
+	 * Downloads no fly zones, once for this server
+	 */
+	private synchronized CompletableFuture<ArrayList<Polygon>> getJTSNoFlyZonesAsync() {
+		// a request that failed is made again
+		if (no_fly_zones_request == null || no_fly_zones_request.isCompletedExceptionally()) {
+			var url_params = "/buildings/no-fly-zones.geojson";
+			no_fly_zones_request = zone_cache != null ? source.fetch(url_params, zone_cache::parse)
+					: source.fetch(url_params, Server::parseNoFlyZones);
+		}
+		return no_fly_zones_request;
+	}
+
+	/**
+	 * Parses the data of sensors for a day, keeping the first entry of any location listed twice
+	 * 
+	 * @param in the air-quality-data.json document
+	 * @return the readings
+	 * @throws IOException if the document cannot be read or is malformed
+	 */
+	static DayReadings parseReadings(InputStream in) throws IOException {
+		var locations = new String[64];
+		var battery = new double[64];
+		var reading = new double[64];
+		var text = new String[64];
+		var size = 0;
+		var seen = new HashSet<String>();
+
+		var json = reader(in);
+		json.beginArray();
+		while (json.hasNext()) {
+			String location = null;
+			var sensor_battery = Double.NaN;
+			var sensor_text = "null";
+			json.beginObject();
+			while (json.hasNext()) {
+				switch (json.nextName()) {
+				case "location":
+					location = json.nextString();
+					break;
+				case "battery":
+					sensor_battery = nextNumber(json);
+					break;
+				case "reading":
+					sensor_text = nextText(json);
+					break;
+				default:
+					json.skipValue();
 				}
 			}
-			var jts_coordinate_sequence = csf.create(jts_coors_list.toArray(new Coordinate[0]));
-			
-			// create a JTS polygon and add to list
-			var jts_polygon = gf.createPolygon(jts_coordinate_sequence);
-			jts_polygons_list.add(jts_polygon);
+			json.endObject();
+			if (location == null || !seen.add(location)) {
+				continue;
+			}
+			// grow the columns when full
+			if (size == locations.length) {
+				locations = Arrays.copyOf(locations, 2 * size);
+				battery = Arrays.copyOf(battery, 2 * size);
+				reading = Arrays.copyOf(reading, 2 * size);
+				text = Arrays.copyOf(text, 2 * size);
+			}
+			locations[size] = location;
+			battery[size] = sensor_battery;
+			reading[size] = parseNumber(sensor_text);
+			// the text is kept for readings that are not numbers
+			text[size] = Double.isNaN(reading[size]) ? sensor_text : null;
+			size++;
 		}
+		json.endArray();
+		return new DayReadings(locations, battery, reading, text, size);
+	}
+
+	/**
+	 * Parses no fly zones straight into JTS polygons. The first ring of a polygon is its shell,
+	 * the others are its holes; the parts of multipolygons become separate polygons.
+	 * 
+	 * @param in the no-fly-zones.geojson document
+	 * @return a list of no fly zone JTS polygons
+	 * @throws IOException if the document cannot be read or is malformed
+	 */
+	static ArrayList<Polygon> parseNoFlyZones(InputStream in) throws IOException {
+		var jts_polygons_list = new ArrayList<Polygon>();
+		var json = reader(in);
+		json.beginObject();
+		while (json.hasNext()) {
+			if (!json.nextName().equals("features")) {
+				json.skipValue();
+				continue;
+			}
+			// iterate through no fly zones
+			json.beginArray();
+			while (json.hasNext()) {
+				json.beginObject();
+				while (json.hasNext()) {
+					if (json.nextName().equals("geometry")) {
+						readGeometry(json, jts_polygons_list);
+					} else {
+						json.skipValue();
+					}
+				}
+				json.endObject();
+			}
+			json.endArray();
+		}
+		json.endObject();
 		return jts_polygons_list;
 	}
+
+	/**
+	 * Reads a GeoJSON geometry, adding the polygons in it to a list
+	 */
+	private static void readGeometry(JsonReader json, ArrayList<Polygon> polygons) throws IOException {
+		String type = null;
+		ArrayList<ArrayList<Coordinate[]>> parts = null;
+		json.beginObject();
+		while (json.hasNext()) {
+			switch (json.nextName()) {
+			case "type":
+				type = json.nextString();
+				break;
+			case "coordinates":
+				// the coordinates may come before the type, so read them as the deeper multipolygon nesting
+				parts = readCoordinates(json);
+				break;
+			default:
+				json.skipValue();
+			}
+		}
+		json.endObject();
+		if (parts == null) {
+			return;
+		}
+		if ("Polygon".equals(type)) {
+			polygons.add(polygon(parts.get(0)));
+		} else if ("MultiPolygon".equals(type)) {
+			for (var part : parts) {
+				polygons.add(polygon(part));
+			}
+		}
+	}
+
+	/**
+	 * Reads the coordinates of a polygon, as one part of rings, or of a multipolygon, as many parts
+	 */
+	private static ArrayList<ArrayList<Coordinate[]>> readCoordinates(JsonReader json) throws IOException {
+		var parts = new ArrayList<ArrayList<Coordinate[]>>();
+		json.beginArray();
+		// a polygon is an array of rings, where a ring is an array of positions
+		var polygon = true;
+		var rings = new ArrayList<Coordinate[]>();
+		while (json.hasNext()) {
+			json.beginArray();
+			if (json.hasNext() && json.peek() == JsonToken.BEGIN_ARRAY) {
+				json.beginArray();
+				if (json.hasNext() && json.peek() == JsonToken.BEGIN_ARRAY) {
+					// a multipolygon: this is the first ring of a part
+					polygon = false;
+					var part = new ArrayList<Coordinate[]>();
+					part.add(readRing(json));
+					while (json.hasNext()) {
+						json.beginArray();
+						part.add(readRing(json));
+					}
+					json.endArray();
+					parts.add(part);
+				} else {
+					// a polygon: this is the first position of a ring
+					rings.add(readRing(json, readPosition(json)));
+				}
+			} else {
+				rings.add(readRing(json));
+			}
+		}
+		json.endArray();
+		if (polygon) {
+			parts.add(rings);
+		}
+		return parts;
+	}
+
+	/**
+	 * Reads the rest of a ring whose opening bracket has been read
+	 */
+	private static Coordinate[] readRing(JsonReader json) throws IOException {
+		return readRing(json, null);
+	}
+
+	/**
+	 * Reads the rest of a ring whose opening bracket, and possibly first position, have been read
+	 */
+	private static Coordinate[] readRing(JsonReader json, Coordinate first) throws IOException {
+		var ring = new ArrayList<Coordinate>();
+		if (first != null) {
+			ring.add(first);
+		}
+		while (json.hasNext()) {
+			json.beginArray();
+			ring.add(readPosition(json));
+		}
+		json.endArray();
+		return ring.toArray(new Coordinate[0]);
+	}
+
+	/**
+	 * Reads the rest of a position whose opening bracket has been read
+	 */
+	private static Coordinate readPosition(JsonReader json) throws IOException {
+		var coordinate = new Coordinate(json.nextDouble(), json.nextDouble());
+		// ignore any altitude
+		while (json.hasNext()) {
+			json.skipValue();
+		}
+		json.endArray();
+		return coordinate;
+	}
+
+	/**
+	 * Creates a JTS polygon from its shell and holes
+	 */
+	private static Polygon polygon(ArrayList<Coordinate[]> rings) {
+		var shell = gf.createLinearRing(rings.get(0));
+		var holes = new LinearRing[rings.size() - 1];
+		for (var i = 1; i < rings.size(); i++) {
+			holes[i - 1] = gf.createLinearRing(rings.get(i));
+		}
+		return gf.createPolygon(shell, holes);
+	}
 	
 	/**
-	 * Downloads no fly zones from the server.
+	 * Converts What3Words locations to MapBox points, requesting the ones not cached from the server at once
 	 * 
-	 * @return a feature collection from the no fly zones
+	 * @param w3ws the What3Words location strings
+	 * @return a map of the locations to points at their centres
 	 */
-	private FeatureCollection getNoFlyZones() {
-		// Download the file
-		var url_params = "/buildings/no-fly-zones.geojson";
-		var jsonString = makeARequest(url_params);
-		// Convert to a feature collection and return
-		return FeatureCollection.fromJson(jsonString);
+	private CompletableFuture<HashMap<String, Point>> getPointsAsync(Collection<String> w3ws) {
+		var requests = new HashMap<String, CompletableFuture<Point>>();
+		for (var w3w : w3ws) {
+			requests.put(w3w, w3wtoPointAsync(w3w));
+		}
+		return CompletableFuture.allOf(requests.values().toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+			var hash_map = new HashMap<String, Point>();
+			requests.forEach((w3w, request) -> hash_map.put(w3w, request.join()));
+			return hash_map;
+		});
 	}
-	
+
 	/**
-	 * Converts a What3Words location to a MapBox point by requesting it from the server
+	 * Converts a What3Words location to a MapBox point, requesting it from the server if it is not cached
 	 * 
 	 * @param w3w the What3Words location string
 	 * @return Returns a point at centre of the W3W location
 	 */
-	private Point w3wtoPoint(String w3w) {
+	private CompletableFuture<Point> w3wtoPointAsync(String w3w) {
+		var request = w3w_requests.get(w3w);
+		if (request != null && !request.isCompletedExceptionally()) {
+			return request;
+		}
+		var point = w3w_cache.get(w3w);
+		if (point != null) {
+			Metrics.get().endpoint("words").recordCacheHit();
+			request = CompletableFuture.completedFuture(point);
+			w3w_requests.put(w3w, request);
+			return request;
+		}
 		var words = w3w.split("\\.");
 		var url_params = "/words/" + words[0] + "/" + words[1] + "/" + words[2] + "/details.json";
-		var jsonString = makeARequest(url_params); 
-
-		// save the Coordinates field to a variable 
-		var point_long_lat = new Gson().fromJson(jsonString, Coordinates.class);
-		
-		// create a point
-		var point = Point.fromLngLat(point_long_lat.coordinates.lng, point_long_lat.coordinates.lat);
-		
-		return point;
+		request = source.fetch(url_params, Server::parseW3W).thenApply(parsed -> {
+			w3w_cache.put(w3w, parsed);
+			return parsed;
+		});
+		w3w_requests.put(w3w, request);
+		return request;
 	}
-	
+
 	/**
-	 * Makes a request to a server at localhost and returns body of the response
+	 * Parses the details of a What3Words location
 	 * 
-	 * @param url_params the parameters of the request
-	 * @return body of the request
-	 */
-	private String makeARequest(String url_params) {
-		// Compose the URL
-		var url_string = "http://localhost:" + port + url_params;		
-		
-		// Create a request
-		HttpRequest request = null;
+	 * @param in the details.json document
+	 * @return Returns a point at centre of the W3W location
+	 * @throws IOException if the document cannot be read or has no coordinates
+	 */
+	static Point parseW3W(InputStream in) throws IOException {
+		var json = reader(in);
+		json.beginObject();
+		while (json.hasNext()) {
+			if (!json.nextName().equals("coordinates")) {
+				json.skipValue();
+				continue;
+			}
+			// save the coordinates field and create a point
+			var lng = Double.NaN;
+			var lat = Double.NaN;
+			json.beginObject();
+			while (json.hasNext()) {
+				switch (json.nextName()) {
+				case "lng":
+					lng = json.nextDouble();
+					break;
+				case "lat":
+					lat = json.nextDouble();
+					break;
+				default:
+					json.skipValue();
+				}
+			}
+			json.endObject();
+			return Point.fromLngLat(lng, lat);
+		}
+		throw new IOException("No coordinates in the details of the location");
+	}
+
+	/**
+	 * Creates a lenient JSON reader of a UTF-8 document
+	 */
+	private static JsonReader reader(InputStream in) {
+		var json = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+		json.setLenient(true);
+		return json;
+	}
+
+	/**
+	 * Reads a number, which may be written as a string, giving NaN for null or anything else that
+	 * is not a number
+	 */
+	private static double nextNumber(JsonReader json) throws IOException {
+		return parseNumber(nextText(json));
+	}
+
+	/**
+	 * Reads a string or a number as it is written, giving "null" for null
+	 */
+	private static String nextText(JsonReader json) throws IOException {
+		if (json.peek() == JsonToken.NULL) {
+			json.nextNull();
+			return "null";
+		}
+		return json.nextString();
+	}
+
+	/**
+	 * Parses a number, giving NaN for anything that is not a number
+	 */
+	private static double parseNumber(String text) {
 		try {
-			request = HttpRequest.newBuilder()
-					.uri(URI.create(url_string))
-					.build();
-		} catch (IllegalArgumentException e) {
-			e.printStackTrace();
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
 		}
+	}
 
-		// Send the request
-		HttpResponse<String> response = null;
+	/**
+	 * Waits for a request, unwrapping the ServerException it failed with
+	 * 
+	 * @param request the request
+	 * @return the result of the request
+	 * @throws ServerException if the request failed
+	 */
+	private static <T> T await(CompletableFuture<T> request) {
 		try {
-			response = client.send(request, BodyHandlers.ofString());
-		} catch (IOException e) {
-			e.printStackTrace();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
-		
-		// Deal with the response
-		if (response.statusCode() != 200) {
-			System.err.println("Received " + response.statusCode() + " from " + url_string);
-			return null;
-		} else {
-			return response.body();			
+			return request.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof ServerException) {
+				throw (ServerException) e.getCause();
 			}
+			throw new ServerException("Processing a response failed", e.getCause());
+		}
 	}
 
-}
\ No newline at end of file
+}
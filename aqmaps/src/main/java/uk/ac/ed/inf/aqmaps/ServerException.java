@@ -0,0 +1,39 @@
+package uk.ac.ed.inf.aqmaps;
+
+/**
+ * Thrown when data cannot be got from the server
+ * 
+ * @author Michal Sadowski
+ *
+ */
+public class ServerException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+
+	/**
+	 * @param message what failed
+	 * @param cause why it failed
+	 */
+	public ServerException(String message, Throwable cause) {
+		super(message, cause);
+		this.status = -1;
+	}
+
+	/**
+	 * @param message what failed
+	 * @param status HTTP status code the server answered with
+	 */
+	public ServerException(String message, int status) {
+		super(message);
+		this.status = status;
+	}
+
+	/**
+	 * @return HTTP status code the server answered with, or -1 if it did not answer
+	 */
+	public int getStatus() {
+		return status;
+	}
+}
@@ -0,0 +1,191 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP server in this process serving the files of a copy of the WebServer directory, i.e.
+ * the /maps, /words and /buildings documents, in place of WebServerLite.jar. Each response can
+ * be delayed by a fixed latency and a random jitter, and a share of the requests can be answered
+ * with status 500, to try the client under network conditions like real ones.
+ *
+ * It can also be run on its own; the injected conditions are then read from system properties:
+ * -Daqmaps.standin.latency.ms=[delay of every response in milliseconds, 0 by default]
+ * -Daqmaps.standin.jitter.ms=[maximum random change of the delay in milliseconds, 0 by default]
+ * -Daqmaps.standin.errors=[share of requests answered with status 500, from 0 to 1, 0 by default]
+ * -Daqmaps.standin.seed=[seed of the jitter and the errors, 0 by default]
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class StandInServer {
+
+	private final File root;
+	private final HttpServer server;
+	private final ExecutorService handlers = Executors.newCachedThreadPool(runnable -> {
+		var thread = new Thread(runnable, "aqmaps-standin");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile long latency = 0;
+	private volatile long jitter = 0;
+	private volatile double error_rate = 0;
+	private Random random = new Random(0);
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * @param root the directory to serve, laid out as the WebServer directory
+	 * @param port port to listen at, 0 for any free port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public StandInServer(File root, int port) throws IOException {
+		this.root = root;
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/", this::handle);
+		// handlers sleep through the injected latency, so each request needs a thread of its own
+		server.setExecutor(handlers);
+	}
+
+	/**
+	 * @param args should be two arguments: the directory and the port in format: [directory] [port]
+	 */
+	public static void main(String[] args) {
+		// Check for validity of command line arguments
+		if (args.length != 2) {
+			System.err.println("Wrong number of arguments given. Usage:");
+			System.err.println("java -cp aqmaps.jar uk.ac.ed.inf.aqmaps.StandInServer [directory] [port]");
+			return;
+		}
+		try {
+			var server = new StandInServer(new File(args[0]), Integer.parseInt(args[1]));
+			server.setLatency(Long.getLong("aqmaps.standin.latency.ms", 0));
+			server.setJitter(Long.getLong("aqmaps.standin.jitter.ms", 0));
+			server.setErrorRate(Double.parseDouble(System.getProperty("aqmaps.standin.errors", "0")));
+			server.setSeed(Long.getLong("aqmaps.standin.seed", 0));
+			server.start();
+			System.out.println("Serving " + args[0] + " at port " + server.getPort());
+			// the handler threads are daemons, so keep the process alive
+			Thread.currentThread().join();
+		} catch (IOException e) {
+			System.out.println("An error occurred:");
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @param latency delay of every response in milliseconds, 0 by default
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * @param jitter maximum random change of the delay in milliseconds either way, 0 by default
+	 */
+	public void setJitter(long jitter) {
+		this.jitter = jitter;
+	}
+
+	/**
+	 * @param error_rate share of requests answered with status 500, from 0 to 1, 0 by default
+	 */
+	public void setErrorRate(double error_rate) {
+		this.error_rate = error_rate;
+	}
+
+	/**
+	 * @param seed seed of the jitter and the errors, 0 by default
+	 */
+	public synchronized void setSeed(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Starts answering requests in the background
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops answering requests, without waiting for the ones in progress
+	 */
+	public void stop() {
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	/**
+	 * @return the port the server listens at
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return number of requests received
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return number of requests answered with an injected error
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * Answers a request with the file at its path, after the injected delay
+	 */
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			requests.incrementAndGet();
+			long delay;
+			boolean fail;
+			synchronized (this) {
+				delay = latency + (jitter > 0 ? Math.round((2 * random.nextDouble() - 1) * jitter) : 0);
+				fail = error_rate > 0 && random.nextDouble() < error_rate;
+			}
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			if (fail) {
+				errors.incrementAndGet();
+				exchange.sendResponseHeaders(500, -1);
+				return;
+			}
+
+			// only serve files under the root
+			var path = exchange.getRequestURI().getPath();
+			var file = new File(root, path);
+			if (!"GET".equals(exchange.getRequestMethod()) || path.contains("..") || !file.isFile()) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, file.length());
+			Files.copy(file.toPath(), exchange.getResponseBody());
+		} finally {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the flight log as text, one line per move in format:
+ * [no],[longitude before],[latitude before],[angle],[longitude after],[latitude after],[sensor]
+ *
+ * Each line is formatted into one reused StringBuilder and copied into one reused buffer, which is
+ * written to the channel when full, so writing a move allocates nothing.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class TextLogSink implements FlightLogSink {
+
+	private final static String line_separator = System.lineSeparator();
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+	private final StringBuilder line = new StringBuilder(128);
+
+	/**
+	 * @param channel the channel to write to, closed with the sink
+	 */
+	public TextLogSink(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	@Override
+	public void write(int no, double from_lon, double from_lat, int angle, double to_lon, double to_lat, String sensor)
+			throws IOException {
+		// appending numbers to a StringBuilder formats them as Double.toString does, without a String
+		line.setLength(0);
+		line.append(no).append(',').append(from_lon).append(',').append(from_lat).append(',').append(angle).append(',')
+				.append(to_lon).append(',').append(to_lat).append(',').append(sensor).append(line_separator);
+
+		// a character takes at most 3 bytes in UTF-8
+		if (buffer.remaining() < 3 * line.length()) {
+			flush();
+		}
+		for (var i = 0; i < line.length(); i++) {
+			var c = line.charAt(i);
+			if (c >= 0x80) {
+				// rare, so encode the rest of the line the slow way
+				buffer.put(line.substring(i).getBytes(StandardCharsets.UTF_8));
+				break;
+			}
+			buffer.put((byte) c);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Writes the buffer to the channel and empties it
+	 */
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
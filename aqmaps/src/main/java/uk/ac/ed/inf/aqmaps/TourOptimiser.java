@@ -0,0 +1,262 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Chooses the order in which to visit the nodes of a closed tour starting and ending at node 0.
+ * It builds a matrix of leg costs and improves a nearest neighbour tour with 2-opt and Or-opt
+ * local search until no move improves it or the time limit is reached. Once the matrix is built,
+ * tours can be optimised from many threads at once.
+ *
+ * The time limit bounds only the local search of each call to optimise(). Building the matrix
+ * counts the moves of every leg between the nodes, and is not bounded by it; it happens once, in
+ * the constructor.
+ *
+ * Interrupting the thread using an optimiser stops the local search at once, and the building of
+ * the matrix after the rows being computed.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class TourOptimiser {
+
+	private final int size;
+	private final int[][] cost;
+	private final long time_limit;
+
+	/**
+	 * @param size number of nodes including the start node 0
+	 * @param leg_cost cost of getting from one node to another, must be safe to call from many threads
+	 * @throws CancellationException if the calling thread is interrupted before the matrix is built
+	 * @param time_limit maximum time in milliseconds to spend on the local search of each call to optimise(),
+	 *                   not counting building the matrix
+	 */
+	public TourOptimiser(int size, IntBinaryOperator leg_cost, long time_limit) {
+		this.size = size;
+		this.time_limit = time_limit;
+		this.cost = new int[size][size];
+		// legs are independent, so compute the rows of the matrix in parallel, on threads that do not see
+		// the interrupts of the caller
+		var caller = Thread.currentThread();
+		IntStream.range(0, size).parallel().forEach(i -> {
+			if (caller.isInterrupted()) {
+				return;
+			}
+			for (var j = 0; j < size; j++) {
+				if (i != j) {
+					cost[i][j] = leg_cost.applyAsInt(i, j);
+				}
+			}
+		});
+		if (caller.isInterrupted()) {
+			throw new CancellationException("Interrupted while building the cost matrix");
+		}
+	}
+
+	/**
+	 * Finds a good order to visit the nodes in, starting from the nearest neighbour tour
+	 *
+	 * @return the order of nodes 1..size-1 to visit after leaving node 0
+	 */
+	public int[] optimise() {
+		return optimise(null);
+	}
+
+	/**
+	 * Finds a good order to visit the nodes in. With a source of randomness the starting tour
+	 * picks one of the few cheapest nodes at each step, so that different seeds explore different
+	 * local optima.
+	 *
+	 * @param random source of randomness, or null to start from the nearest neighbour tour
+	 * @return the order of nodes 1..size-1 to visit after leaving node 0
+	 */
+	public int[] optimise(Random random) {
+		var deadline = System.nanoTime() + time_limit * 1_000_000;
+		var tour = nearestNeighbour(random);
+
+		// alternate between the two neighbourhoods until neither improves the tour
+		var improved = true;
+		while (improved && searching(deadline)) {
+			improved = twoOpt(tour, deadline);
+			improved = orOpt(tour, deadline) || improved;
+		}
+
+		var order = new int[size - 1];
+		System.arraycopy(tour, 1, order, 0, size - 1);
+		return order;
+	}
+
+	/**
+	 * Calculates the cost of a closed tour
+	 *
+	 * @param tour the nodes to visit starting with 0
+	 * @return sum of the costs of all legs including the return to node 0
+	 */
+	public int tourCost(int[] tour) {
+		var total = 0;
+		for (var i = 0; i < tour.length - 1; i++) {
+			total += cost[tour[i]][tour[i + 1]];
+		}
+		return total + cost[tour[tour.length - 1]][tour[0]];
+	}
+
+	/**
+	 * Builds a tour by always going to the cheapest node not visited yet, or one of the three
+	 * cheapest ones chosen at random
+	 *
+	 * @param random source of randomness, or null
+	 * @return tour starting with node 0
+	 */
+	private int[] nearestNeighbour(Random random) {
+		var tour = new int[size];
+		var visited = new boolean[size];
+		visited[0] = true;
+		for (var i = 1; i < size; i++) {
+			var rank = random == null ? 0 : random.nextInt(Math.min(3, size - i));
+			// pick the cheapest node rank + 1 times, marking each as visited, then unmark the skipped ones
+			var picked = new int[rank + 1];
+			for (var r = 0; r <= rank; r++) {
+				var best = -1;
+				for (var j = 1; j < size; j++) {
+					if (!visited[j] && (best < 0 || cost[tour[i - 1]][j] < cost[tour[i - 1]][best])) {
+						best = j;
+					}
+				}
+				picked[r] = best;
+				visited[best] = true;
+			}
+			for (var r = 0; r < rank; r++) {
+				visited[picked[r]] = false;
+			}
+			tour[i] = picked[rank];
+		}
+		return tour;
+	}
+
+	/**
+	 * Reverses segments of the tour while it shortens the tour. Costs may be asymmetric,
+	 * so the cost of the reversed segment is taken from prefix sums in both directions.
+	 *
+	 * @param tour the tour to improve in place
+	 * @param deadline System.nanoTime() after which to stop
+	 * @return true if the tour was improved
+	 */
+	private boolean twoOpt(int[] tour, long deadline) {
+		var n = tour.length;
+		var forward = new int[n];
+		var backward = new int[n];
+		var improved = false;
+		var restart = true;
+
+		while (restart && searching(deadline)) {
+			restart = false;
+			// forward[k] is the cost of following the tour up to position k, backward[k] the cost in reverse
+			for (var k = 1; k < n; k++) {
+				forward[k] = forward[k - 1] + cost[tour[k - 1]][tour[k]];
+				backward[k] = backward[k - 1] + cost[tour[k]][tour[k - 1]];
+			}
+			search:
+			for (var i = 1; i < n - 1; i++) {
+				for (var j = i + 1; j < n; j++) {
+					var before = tour[i - 1];
+					var after = tour[(j + 1) % n];
+					var old_cost = cost[before][tour[i]] + (forward[j] - forward[i]) + cost[tour[j]][after];
+					var new_cost = cost[before][tour[j]] + (backward[j] - backward[i]) + cost[tour[i]][after];
+					if (new_cost < old_cost) {
+						reverse(tour, i, j);
+						improved = true;
+						restart = true;
+						break search;
+					}
+				}
+			}
+		}
+		return improved;
+	}
+
+	/**
+	 * Moves segments of one to three consecutive nodes to another place in the tour
+	 * while it shortens the tour
+	 *
+	 * @param tour the tour to improve in place
+	 * @param deadline System.nanoTime() after which to stop
+	 * @return true if the tour was improved
+	 */
+	private boolean orOpt(int[] tour, long deadline) {
+		var n = tour.length;
+		var improved = false;
+		var restart = true;
+
+		while (restart && searching(deadline)) {
+			restart = false;
+			search:
+			for (var length = 1; length <= 3; length++) {
+				for (var i = 1; i + length <= n; i++) {
+					var first = tour[i];
+					var last = tour[i + length - 1];
+					var before = tour[i - 1];
+					var after = tour[(i + length) % n];
+					// gain from taking the segment out
+					var removed = cost[before][first] + cost[last][after] - cost[before][after];
+					for (var p = 0; p < n; p++) {
+						// insert between tour[p] and tour[p + 1], which must both be outside the segment
+						var q = (p + 1) % n;
+						if (p >= i - 1 && p < i + length) {
+							continue;
+						}
+						var added = cost[tour[p]][first] + cost[last][tour[q]] - cost[tour[p]][tour[q]];
+						if (added < removed) {
+							moveSegment(tour, i, length, p);
+							improved = true;
+							restart = true;
+							break search;
+						}
+					}
+				}
+			}
+		}
+		return improved;
+	}
+
+	/**
+	 * @return true until the deadline passes or the thread is interrupted
+	 */
+	private static boolean searching(long deadline) {
+		return System.nanoTime() < deadline && !Thread.currentThread().isInterrupted();
+	}
+
+	/**
+	 * Reverses the part of the tour between positions i and j inclusive
+	 */
+	private static void reverse(int[] tour, int i, int j) {
+		while (i < j) {
+			var tmp = tour[i];
+			tour[i++] = tour[j];
+			tour[j--] = tmp;
+		}
+	}
+
+	/**
+	 * Moves the segment starting at position i so that it follows the node at position p
+	 */
+	private static void moveSegment(int[] tour, int i, int length, int p) {
+		var n = tour.length;
+		var moved = new int[n];
+		var k = 0;
+		for (var m = 0; m < n; m++) {
+			if (m >= i && m < i + length) {
+				continue;
+			}
+			moved[k++] = tour[m];
+			if (m == p) {
+				for (var s = 0; s < length; s++) {
+					moved[k++] = tour[i + s];
+				}
+			}
+		}
+		System.arraycopy(moved, 0, tour, 0, n);
+	}
+}
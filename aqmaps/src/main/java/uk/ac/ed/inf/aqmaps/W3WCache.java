@@ -0,0 +1,171 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mapbox.geojson.Point;
+
+/**
+ * A cache of the points of What3Words locations, which never change. It can be filled from a copy
+ * of the words directory of the server, and saved to a file for later runs. Saving merges the
+ * file with what other processes saved to it in the meantime, and replaces it atomically, so many
+ * processes can share one file.
+ *
+ * The file has a line per location in format: [w3w],[longitude],[latitude]
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class W3WCache {
+
+	private final ConcurrentHashMap<String, Point> points = new ConcurrentHashMap<String, Point>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Looks up the point of a location
+	 *
+	 * @param w3w the What3Words location
+	 * @return the point, or null if the location is not cached
+	 */
+	public Point get(String w3w) {
+		var point = points.get(w3w);
+		if (point != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return point;
+	}
+
+	/**
+	 * Stores the point of a location
+	 *
+	 * @param w3w the What3Words location
+	 * @param point the point at centre of the location
+	 */
+	public void put(String w3w, Point point) {
+		points.put(w3w, point);
+	}
+
+	/**
+	 * Fills the cache from a copy of the words directory of the server, where each location a.b.c
+	 * has its details in a/b/c/details.json
+	 *
+	 * @param words_dir the words directory
+	 * @return number of locations added
+	 * @throws IOException if a details file cannot be read
+	 */
+	public int warmUp(File words_dir) throws IOException {
+		var added = 0;
+		// one directory level per word
+		for (var first : subdirectories(words_dir)) {
+			for (var second : subdirectories(first)) {
+				for (var third : subdirectories(second)) {
+					var details = new File(third, "details.json");
+					var w3w = first.getName() + "." + second.getName() + "." + third.getName();
+					if (details.isFile() && !points.containsKey(w3w)) {
+						try (var in = new FileInputStream(details)) {
+							points.put(w3w, Server.parseW3W(in));
+						}
+						added++;
+					}
+				}
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * @return the directories in a directory, none if it is not a directory
+	 */
+	private static File[] subdirectories(File dir) {
+		var dirs = dir.listFiles(File::isDirectory);
+		return dirs != null ? dirs : new File[0];
+	}
+
+	/**
+	 * @return number of lookups that found the location
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of lookups that did not find the location
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of locations stored
+	 */
+	public int size() {
+		return points.size();
+	}
+
+	/**
+	 * Saves the locations to a file, together with the ones already in it, replacing it atomically
+	 *
+	 * @param file the file to save to
+	 * @throws IOException if the file cannot be read or written
+	 */
+	public void save(File file) throws IOException {
+		// sorted, so that the file does not change when nothing was added
+		var merged = new TreeMap<String, Point>(read(file));
+		merged.putAll(points);
+		AtomicFile.write(file, out -> {
+			var writer = new BufferedWriter(new OutputStreamWriter(out));
+			for (var entry : merged.entrySet()) {
+				writer.write(entry.getKey() + "," + entry.getValue().longitude() + "," + entry.getValue().latitude());
+				writer.newLine();
+			}
+			writer.flush();
+		});
+	}
+
+	/**
+	 * Loads the locations saved to a file. A missing file gives an empty cache.
+	 *
+	 * @param file the file to load from
+	 * @return the cache
+	 * @throws IOException if the file cannot be read
+	 */
+	public static W3WCache load(File file) throws IOException {
+		var cache = new W3WCache();
+		cache.points.putAll(read(file));
+		return cache;
+	}
+
+	/**
+	 * Reads the locations saved to a file
+	 *
+	 * @return the points by location, empty if the file does not exist
+	 */
+	private static Map<String, Point> read(File file) throws IOException {
+		var read = new TreeMap<String, Point>();
+		if (!file.exists()) {
+			return read;
+		}
+		try (var in = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				var fields = line.split(",");
+				if (fields.length == 3) {
+					read.put(fields[0], Point.fromLngLat(Double.parseDouble(fields[1]), Double.parseDouble(fields[2])));
+				}
+			}
+		}
+		return read;
+	}
+}
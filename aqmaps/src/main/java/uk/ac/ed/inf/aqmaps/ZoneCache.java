@@ -0,0 +1,196 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.io.ByteOrderValues;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+
+/**
+ * A cache of the no fly zones as parsed polygons together with the raster of moves of their
+ * ObstacleIndex, which takes by far the longest to build. It is keyed by the SHA-256 hash of the
+ * no-fly-zones.geojson document: while the document is unchanged, it is neither parsed nor
+ * rasterised again. Only the zones of the latest document are kept.
+ *
+ * The cache can be saved to a file and loaded in a later run. A saved raster is only used if it
+ * was built by the same version of MoveMask with the same cell size, move length and confinement
+ * area; otherwise it is built again.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class ZoneCache {
+
+	private final static int file_magic = 0x5a4f4e43; // "ZONC"
+	private final static int file_version = 2;
+
+	private static final GeometryFactory gf = new GeometryFactory();
+
+	// hash of the document the zones were parsed from, null if there are none
+	private byte[] digest;
+	private ArrayList<Polygon> no_fly_zones;
+	private MoveMask mask;
+	private boolean changed = false;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Parses a no-fly-zones.geojson document, unless it has the hash of the cached zones
+	 *
+	 * @param in the no-fly-zones.geojson document
+	 * @return a list of no fly zone JTS polygons
+	 * @throws IOException if the document cannot be read or is malformed
+	 */
+	public ArrayList<Polygon> parse(InputStream in) throws IOException {
+		var document = in.readAllBytes();
+		var document_digest = sha256(document);
+		synchronized (this) {
+			if (Arrays.equals(document_digest, digest)) {
+				hits++;
+				Metrics.get().endpoint("buildings").recordCacheHit();
+				return new ArrayList<Polygon>(no_fly_zones);
+			}
+		}
+		// parse outside the lock, the document is new
+		var parsed = Server.parseNoFlyZones(new ByteArrayInputStream(document));
+		synchronized (this) {
+			misses++;
+			digest = document_digest;
+			no_fly_zones = parsed;
+			mask = null;
+			changed = true;
+			return new ArrayList<Polygon>(parsed);
+		}
+	}
+
+	/**
+	 * Builds the obstacle index of no fly zones, reusing the raster of moves if they are the cached ones
+	 *
+	 * @param no_fly_zones areas to avoid in JTS type
+	 * @return the index
+	 */
+	public ObstacleIndex index(ArrayList<Polygon> no_fly_zones) {
+		synchronized (this) {
+			if (mask != null && no_fly_zones.equals(this.no_fly_zones)) {
+				return new ObstacleIndex(no_fly_zones, mask);
+			}
+		}
+		var obstacles = new ObstacleIndex(no_fly_zones);
+		synchronized (this) {
+			// keep the raster only for the zones of the latest document
+			if (no_fly_zones.equals(this.no_fly_zones)) {
+				mask = obstacles.mask();
+				changed = true;
+			}
+		}
+		return obstacles;
+	}
+
+	/**
+	 * @return number of documents that had the hash of the cached zones
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of documents that had to be parsed
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Saves the zones and their raster to a file, replacing it atomically. Nothing is written if
+	 * they are the ones loaded from it.
+	 *
+	 * @param file the file to save to
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void save(File file) throws IOException {
+		if (!changed || digest == null) {
+			return;
+		}
+		var writer = new WKBWriter(2, ByteOrderValues.LITTLE_ENDIAN);
+		AtomicFile.write(file, stream -> {
+			var out = new DataOutputStream(stream);
+			out.writeInt(file_magic);
+			out.writeInt(file_version);
+			out.write(digest);
+			out.writeInt(no_fly_zones.size());
+			for (var zone : no_fly_zones) {
+				var wkb = writer.write(zone);
+				out.writeInt(wkb.length);
+				out.write(wkb);
+			}
+			out.writeBoolean(mask != null);
+			if (mask != null) {
+				mask.write(out);
+			}
+		});
+		changed = false;
+	}
+
+	/**
+	 * Loads the zones saved to a file. The file is ignored if it does not exist or was saved by another
+	 * version.
+	 *
+	 * @param file the file to load from
+	 * @return the cache
+	 * @throws IOException if the file cannot be read
+	 */
+	public static ZoneCache load(File file) throws IOException {
+		var cache = new ZoneCache();
+		if (!file.exists()) {
+			return cache;
+		}
+		try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != file_magic || in.readInt() != file_version) {
+				return cache;
+			}
+			var digest = new byte[32];
+			in.readFully(digest);
+			var reader = new WKBReader(gf);
+			var no_fly_zones = new ArrayList<Polygon>();
+			var count = in.readInt();
+			for (var i = 0; i < count; i++) {
+				var wkb = new byte[in.readInt()];
+				in.readFully(wkb);
+				no_fly_zones.add((Polygon) reader.read(wkb));
+			}
+			// a stale raster is dropped, the zones are still valid
+			cache.mask = in.readBoolean() ? MoveMask.read(in) : null;
+			cache.digest = digest;
+			cache.no_fly_zones = no_fly_zones;
+		} catch (ParseException e) {
+			throw new IOException("Invalid no fly zone in the zone cache", e);
+		}
+		return cache;
+	}
+
+	/**
+	 * @return SHA-256 hash of the bytes
+	 */
+	private static byte[] sha256(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
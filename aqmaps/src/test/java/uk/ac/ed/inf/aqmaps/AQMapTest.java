@@ -0,0 +1,84 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.LineString;
+import com.mapbox.geojson.Point;
+
+/**
+ * Checks that the map streamed by AQMap is the document mapbox serialises for the same features.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class AQMapTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void exportMatchesMapbox() throws IOException {
+		// fly a sample day
+		var srv = new Server(new FileDataSource(new File("../WebServer")), new String[] { "15", "06", "2020" },
+				new DayCache(1));
+		var sensors_loc_hash = srv.getHashMap();
+		var start = Point.fromLngLat(-3.1878, 55.9444);
+		var path = new Path(srv.getSensorsLocations(), start, srv.getObstacleIndex());
+		var drone = new Drone(start, sensors_loc_hash, srv);
+		drone.fly(path.generatePath());
+
+		// leave some sensors unread, so that they are written with a fake reading
+		var readings = new ArrayList<Reading>(drone.getReadings().subList(0, drone.getReadings().size() - 5));
+		var out = folder.newFile("readings.geojson");
+		new AQMap(readings, drone.getTrace(), sensors_loc_hash).export(out.getPath());
+
+		var expected = mapboxMap(readings, drone.getTrace(), new HashMap<String, Point>(sensors_loc_hash));
+		assertEquals(expected, new String(Files.readAllBytes(out.toPath()), "UTF-8"));
+	}
+
+	/**
+	 * Builds the map as a mapbox FeatureCollection, in the order AQMap writes the features
+	 *
+	 * @return the JSON of the map
+	 */
+	private static String mapboxMap(ArrayList<Reading> readings, FlightTrace trace,
+			HashMap<String, Point> sensor_locs) {
+		var features = new ArrayList<Feature>();
+		var unread_locs = new HashMap<String, Point>(sensor_locs);
+		for (var reading : readings) {
+			features.add(pointFeature(reading, sensor_locs));
+			unread_locs.remove(reading.location);
+		}
+		for (var key : unread_locs.keySet()) {
+			features.add(pointFeature(new Reading(key, 100.0, "-2"), sensor_locs));
+		}
+		features.add(Feature.fromGeometry(LineString.fromLngLats(trace.points())));
+		return FeatureCollection.fromFeatures(features).toJson();
+	}
+
+	private static Feature pointFeature(Reading reading, HashMap<String, Point> sensor_locs) {
+		var feature = Feature.fromGeometry(sensor_locs.get(reading.location));
+		var measurement = reading.battery < 10 ? -1 : (int) Double.parseDouble(reading.reading);
+		var cs = ColorSymbol.readingToRgbColor(measurement);
+		var mks = ColorSymbol.readingToMarkerSymbol(measurement);
+		feature.addStringProperty("location", reading.location);
+		feature.addStringProperty("rgb-string", cs);
+		feature.addStringProperty("marker-color", cs);
+		if (mks != null) {
+			feature.addStringProperty("marker-symbol", mks);
+		}
+		return feature;
+	}
+}
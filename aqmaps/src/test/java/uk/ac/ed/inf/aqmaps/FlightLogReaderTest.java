@@ -0,0 +1,91 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that FlightLogReader reads back every move written in each log format, and rejects logs
+ * whose moves do not follow each other.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class FlightLogReaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsText() throws IOException {
+		assertRoundTrip(FlightLogSink.text(folder.newFile("flightpath.txt")), "flightpath.txt");
+	}
+
+	@Test
+	public void readsGzip() throws IOException {
+		assertRoundTrip(FlightLogSink.gzip(folder.newFile("flightpath.txt.gz")), "flightpath.txt.gz");
+	}
+
+	@Test
+	public void readsBinary() throws IOException {
+		assertRoundTrip(FlightLogSink.binary(folder.newFile("flightpath.bin")), "flightpath.bin");
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsDiscontinuousMoves() throws IOException {
+		var file = folder.newFile("flightpath.txt");
+		Files.write(file.toPath(), ("1,-3.1878,55.9444,0,-3.1875,55.9444,null\n"
+				+ "2,-3.1878,55.9444,0,-3.1875,55.9444,null\n").getBytes("UTF-8"));
+		FlightLogReader.read(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsEmptyLog() throws IOException {
+		FlightLogReader.read(folder.newFile("flightpath.txt"));
+	}
+
+	/**
+	 * Writes a flight to a log and checks it is read back the same
+	 */
+	private void assertRoundTrip(FlightLogSink sink, String name) throws IOException {
+		var trace = randomTrace();
+		try (sink) {
+			trace.writeTo(sink);
+		}
+		var read = FlightLogReader.read(new File(folder.getRoot(), name));
+
+		assertEquals(trace.moves(), read.moves());
+		for (var position = 0; position <= trace.moves(); position++) {
+			assertEquals(trace.longitude(position), read.longitude(position), 0);
+			assertEquals(trace.latitude(position), read.latitude(position), 0);
+		}
+		for (var move = 1; move <= trace.moves(); move++) {
+			assertEquals(trace.angle(move), read.angle(move));
+			assertEquals(trace.sensor(move), read.sensor(move));
+		}
+	}
+
+	/**
+	 * @return a flight of random moves, reading a sensor after some of them
+	 */
+	private static FlightTrace randomTrace() {
+		var random = new Random(1);
+		var lon = -3.1878;
+		var lat = 55.9444;
+		var trace = new FlightTrace(lon, lat);
+		for (var move = 1; move <= Path.max_moves; move++) {
+			var angle = 10 * random.nextInt(36);
+			lon += Path.delta_lon[angle / 10];
+			lat += Path.delta_lat[angle / 10];
+			trace.add(angle, lon, lat, random.nextInt(4) == 0 ? "sensor.number." + move : null);
+		}
+		return trace;
+	}
+}
@@ -0,0 +1,168 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import com.mapbox.geojson.Point;
+
+/**
+ * Checks that FlightValidator passes a planned flight and reports flights breaking the rules.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class FlightValidatorTest {
+
+	// a start location the drone is allowed to be at
+	private final static double start_lon = -3.1878;
+	private final static double start_lat = 55.9444;
+
+	private static final GeometryFactory gf = new GeometryFactory();
+
+	private static ObstacleIndex obstacles;
+	private static FlightValidator validator;
+
+	@BeforeClass
+	public static void loadZones() throws IOException {
+		try (var in = new FileInputStream("../WebServer/buildings/no-fly-zones.geojson")) {
+			obstacles = new ObstacleIndex(Server.parseNoFlyZones(in));
+		}
+		validator = new FlightValidator(obstacles);
+	}
+
+	@Test
+	public void plannedFlightIsValid() {
+		var srv = new Server(new FileDataSource(new File("../WebServer")), new String[] { "15", "06", "2020" },
+				new DayCache(1));
+		var sensors_loc_hash = srv.getHashMap();
+		var start = Point.fromLngLat(start_lon, start_lat);
+		var drone = new Drone(start, sensors_loc_hash, srv);
+		drone.fly(new Path(srv.getSensorsLocations(), start, obstacles).generatePath());
+
+		var report = validator.validate(drone.getTrace(), sensors_loc_hash);
+		assertTrue(report.getViolations().toString(), report.isValid());
+		assertEquals(sensors_loc_hash.size(), report.getSensorsRead());
+	}
+
+	@Test
+	public void reportsNoFlyZoneCrossing() {
+		// find a move from an allowed location into a no fly zone, away from the border
+		var random = new Random(1);
+		while (true) {
+			var lon = ObstacleIndex.min_lon + Path.move_length
+					+ random.nextDouble() * (ObstacleIndex.max_lon - ObstacleIndex.min_lon - 2 * Path.move_length);
+			var lat = ObstacleIndex.min_lat + Path.move_length
+					+ random.nextDouble() * (ObstacleIndex.max_lat - ObstacleIndex.min_lat - 2 * Path.move_length);
+			for (var angle = 0; angle < 360; angle += 10) {
+				var to_lon = lon + Path.delta_lon[angle / 10];
+				var to_lat = lat + Path.delta_lat[angle / 10];
+				if (!obstacles.covered(gf.createPoint(new Coordinate(lon, lat)))
+						&& obstacles.intersects(lon, lat, to_lon, to_lat)) {
+					// fly into it and back out
+					var report = validator.validate(trace(lon, lat, angle, (angle + 180) % 360),
+							new HashMap<String, Point>());
+					assertEquals(EnumSet.of(FlightReport.Kind.CROSSES_OBSTACLE), kinds(report));
+					assertEquals(1, report.getViolations().get(0).move);
+					assertEquals(2, report.getViolations().get(1).move);
+					return;
+				}
+			}
+		}
+	}
+
+	@Test
+	public void reportsMoveOutOfBounds() {
+		// from just inside the western border, west and back
+		var report = validator.validate(trace(ObstacleIndex.min_lon + Path.move_length / 2, start_lat, 180, 0),
+				new HashMap<String, Point>());
+		assertEquals(EnumSet.of(FlightReport.Kind.CROSSES_OBSTACLE), kinds(report));
+		assertEquals(2, report.getViolations().size());
+	}
+
+	@Test
+	public void reportsTooManyMoves() {
+		// back and forth, ending at the start
+		var angles = new int[Path.max_moves + 2];
+		for (var i = 0; i < angles.length; i++) {
+			angles[i] = i % 2 == 0 ? 90 : 270;
+		}
+		var report = validator.validate(trace(start_lon, start_lat, angles), new HashMap<String, Point>());
+		assertEquals(EnumSet.of(FlightReport.Kind.TOO_MANY_MOVES), kinds(report));
+		assertEquals(0, report.getViolations().get(0).move);
+	}
+
+	@Test
+	public void reportsMissedSensorAndReadingOutOfRange() {
+		var sensors = new HashMap<String, Point>();
+		sensors.put("near.the.start", Point.fromLngLat(start_lon + Path.delta_lon[0], start_lat));
+		sensors.put("far.from.start", Point.fromLngLat(start_lon + 3 * Path.move_length, start_lat));
+		var trace = new FlightTrace(start_lon, start_lat);
+		trace.add(0, start_lon + Path.delta_lon[0], start_lat + Path.delta_lat[0], "far.from.start");
+		trace.add(180, start_lon, start_lat, null);
+
+		var report = validator.validate(trace, sensors);
+		assertEquals(EnumSet.of(FlightReport.Kind.OUT_OF_RANGE, FlightReport.Kind.MISSED_SENSOR), kinds(report));
+		assertFalse(report.isValid());
+	}
+
+	@Test
+	public void fleetSharesSensors() {
+		var sensors = new HashMap<String, Point>();
+		sensors.put("east.of.start", Point.fromLngLat(start_lon + Path.delta_lon[0], start_lat));
+		sensors.put("west.of.start", Point.fromLngLat(start_lon + Path.delta_lon[18], start_lat));
+		var east = new FlightTrace(start_lon, start_lat);
+		east.add(0, start_lon + Path.delta_lon[0], start_lat + Path.delta_lat[0], "east.of.start");
+		east.add(180, start_lon, start_lat, null);
+		var west = new FlightTrace(start_lon, start_lat);
+		west.add(180, start_lon + Path.delta_lon[18], start_lat + Path.delta_lat[18], "west.of.start");
+		west.add(0, start_lon, start_lat, null);
+
+		// each drone misses the other's sensor, the fleet reads both
+		assertEquals(EnumSet.of(FlightReport.Kind.MISSED_SENSOR), kinds(validator.validate(east, sensors)));
+		var report = validator.validate(Arrays.asList(east, null, west), sensors);
+		assertTrue(report.getViolations().toString(), report.isValid());
+		assertEquals(4, report.getMoves());
+
+		// and a broken rule names its drone
+		var far = new FlightTrace(start_lon, start_lat);
+		far.add(0, start_lon + Path.delta_lon[0], start_lat + Path.delta_lat[0], null);
+		report = validator.validate(Arrays.asList(east, west, far), sensors);
+		assertEquals(EnumSet.of(FlightReport.Kind.NOT_RETURNED), kinds(report));
+		assertEquals(3, report.getViolations().get(0).drone);
+	}
+
+	/**
+	 * @return a flight making straight moves in the directions given
+	 */
+	private static FlightTrace trace(double lon, double lat, int... angles) {
+		var trace = new FlightTrace(lon, lat);
+		for (var angle : angles) {
+			lon += Path.delta_lon[angle / 10];
+			lat += Path.delta_lat[angle / 10];
+			trace.add(angle, lon, lat, null);
+		}
+		return trace;
+	}
+
+	private static EnumSet<FlightReport.Kind> kinds(FlightReport report) {
+		var kinds = EnumSet.noneOf(FlightReport.Kind.class);
+		for (var violation : report.getViolations()) {
+			kinds.add(violation.kind);
+		}
+		return kinds;
+	}
+}
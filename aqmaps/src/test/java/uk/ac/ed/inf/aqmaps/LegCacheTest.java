@@ -0,0 +1,102 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that saved legs load back in their order of use, and only for the no fly zones they were
+ * planned around.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class LegCacheTest {
+
+	private final static long zones_fingerprint = 42;
+	private final static int leg_count = 100;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws IOException {
+		var legs = randomLegs();
+		var cache = new LegCache(leg_count, zones_fingerprint);
+		for (var leg : legs) {
+			cache.put(leg[0], leg[1], leg[2], leg[3], Path.sensor_range, PlannerMode.ASTAR, angles(leg));
+		}
+		var file = new File(folder.getRoot(), "legs.bin");
+		cache.save(file);
+
+		var loaded = LegCache.load(file, leg_count, zones_fingerprint);
+		assertEquals(leg_count, loaded.size());
+		for (var leg : legs) {
+			assertArrayEquals(angles(leg), loaded.get(leg[0], leg[1], leg[2], leg[3], Path.sensor_range,
+					PlannerMode.ASTAR, angles -> true));
+			// keyed by the planner mode too
+			assertNull(loaded.get(leg[0], leg[1], leg[2], leg[3], Path.sensor_range, PlannerMode.GREEDY,
+					angles -> true));
+		}
+
+		// a smaller cache keeps the legs used last
+		var smaller = LegCache.load(file, leg_count / 2, zones_fingerprint);
+		assertEquals(leg_count / 2, smaller.size());
+		var last = legs[leg_count - 1];
+		assertArrayEquals(angles(last),
+				smaller.get(last[0], last[1], last[2], last[3], Path.sensor_range, PlannerMode.ASTAR, angles -> true));
+		var first = legs[0];
+		assertNull(smaller.get(first[0], first[1], first[2], first[3], Path.sensor_range, PlannerMode.ASTAR,
+				angles -> true));
+	}
+
+	@Test
+	public void rejectsOtherZones() throws IOException {
+		var cache = new LegCache(leg_count, zones_fingerprint);
+		for (var leg : randomLegs()) {
+			cache.put(leg[0], leg[1], leg[2], leg[3], Path.sensor_range, PlannerMode.GREEDY, angles(leg));
+		}
+		var file = new File(folder.getRoot(), "legs.bin");
+		cache.save(file);
+
+		assertEquals(0, LegCache.load(file, leg_count, zones_fingerprint + 1).size());
+	}
+
+	/**
+	 * @return start and destination of legs within the confinement area
+	 */
+	private static double[][] randomLegs() {
+		var random = new Random(1);
+		var legs = new double[leg_count][];
+		for (var i = 0; i < leg_count; i++) {
+			legs[i] = new double[4];
+			for (var j = 0; j < 4; j += 2) {
+				legs[i][j] = ObstacleIndex.min_lon
+						+ random.nextDouble() * (ObstacleIndex.max_lon - ObstacleIndex.min_lon);
+				legs[i][j + 1] = ObstacleIndex.min_lat
+						+ random.nextDouble() * (ObstacleIndex.max_lat - ObstacleIndex.min_lat);
+			}
+		}
+		return legs;
+	}
+
+	/**
+	 * @return angles of the moves of a leg, made up from its start
+	 */
+	private static int[] angles(double[] leg) {
+		var random = new Random(Double.doubleToLongBits(leg[0]));
+		var angles = new int[1 + random.nextInt(30)];
+		for (var i = 0; i < angles.length; i++) {
+			angles[i] = 10 * random.nextInt(36);
+		}
+		return angles;
+	}
+}
@@ -0,0 +1,83 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a saved mission snapshot loads back the day it was captured from, and that a server
+ * preloaded from it gives the readings of the server it was captured from.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class MissionSnapshotTest {
+
+	// a day with readings of "NaN" and "null"
+	private final static String[] date = { "02", "06", "2020" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws IOException {
+		var srv = new Server(new FileDataSource(new File("../WebServer")), date, new DayCache(1));
+		var file = new File(folder.getRoot(), "mission.bin");
+		MissionSnapshot.capture(srv, date).save(file);
+		var snapshot = MissionSnapshot.load(file);
+
+		assertTrue(snapshot.isOf(date));
+		assertFalse(snapshot.isOf(new String[] { "03", "06", "2020" }));
+		var readings = srv.getDayReadings();
+		var points = srv.getHashMap();
+		assertEquals(readings.size(), snapshot.size());
+		for (var i = 0; i < readings.size(); i++) {
+			var location = readings.location(i);
+			assertEquals(location, snapshot.location(i));
+			assertEquals(points.get(location).longitude(), snapshot.longitude(i), 0);
+			assertEquals(points.get(location).latitude(), snapshot.latitude(i), 0);
+			assertEquals(readings.battery(i), snapshot.battery(i), 0);
+			assertEquals(readings.reading(i), snapshot.reading(i), 0);
+			assertEquals(readings.text(i), snapshot.text(i));
+		}
+		assertEquals(srv.getJTSNoFlyZones(), snapshot.noFlyZones());
+
+		// a server given the snapshot downloads nothing
+		var preloaded = new Server(new FailingDataSource(), date, new DayCache(1));
+		snapshot.preload(preloaded);
+		assertEquals(points, preloaded.getHashMap());
+		for (var location : points.keySet()) {
+			var expected = srv.getReading(location);
+			var reading = preloaded.getReading(location);
+			assertEquals(expected.location, reading.location);
+			assertEquals(expected.battery, reading.battery);
+			assertEquals(expected.reading, reading.reading);
+		}
+		// a reading that is not a number as in the document
+		assertEquals("NaN", preloaded.getReading("spicy.bunch.shady").reading);
+	}
+
+	/**
+	 * Fails every request
+	 */
+	private static class FailingDataSource implements DataSource {
+
+		@Override
+		public <T> CompletableFuture<T> fetch(String url_params, DocumentParser<T> parser) {
+			return CompletableFuture.failedFuture(new ServerException("Not expected to fetch " + url_params, -1));
+		}
+
+		@Override
+		public String location(String url_params) {
+			return url_params;
+		}
+	}
+}
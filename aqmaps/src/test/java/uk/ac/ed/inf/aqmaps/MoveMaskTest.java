@@ -0,0 +1,99 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks the raster of the moves against the exact test of the real no fly zones: a move the
+ * raster allows must cross no obstacle, and a move it forbids must cross one.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class MoveMaskTest {
+
+	// same as the cell size of the raster
+	private final static double cell_size = Path.move_length / 3;
+
+	private static ObstacleIndex obstacles;
+	private static MoveMask mask;
+
+	@BeforeClass
+	public static void loadZones() throws IOException {
+		try (var in = new FileInputStream("../WebServer/buildings/no-fly-zones.geojson")) {
+			obstacles = new ObstacleIndex(Server.parseNoFlyZones(in));
+		}
+		mask = obstacles.mask();
+	}
+
+	@Test
+	public void randomStarts() {
+		var random = new Random(1);
+		for (var i = 0; i < 5000; i++) {
+			// reach a move beyond the border, where the raster must not claim anything
+			var lon = ObstacleIndex.min_lon - Path.move_length
+					+ random.nextDouble() * (ObstacleIndex.max_lon - ObstacleIndex.min_lon + 2 * Path.move_length);
+			var lat = ObstacleIndex.min_lat - Path.move_length
+					+ random.nextDouble() * (ObstacleIndex.max_lat - ObstacleIndex.min_lat + 2 * Path.move_length);
+			checkAllAngles(lon, lat);
+		}
+	}
+
+	@Test
+	public void cellEdges() {
+		var random = new Random(2);
+		var columns = (int) Math.ceil((ObstacleIndex.max_lon - ObstacleIndex.min_lon) / cell_size);
+		var rows = (int) Math.ceil((ObstacleIndex.max_lat - ObstacleIndex.min_lat) / cell_size);
+		for (var i = 0; i < 2000; i++) {
+			var lon = ObstacleIndex.min_lon + random.nextInt(columns + 1) * cell_size;
+			var lat = ObstacleIndex.min_lat + random.nextInt(rows + 1) * cell_size;
+			// the corner of a cell, a point on its edge and the points just either side of the corner
+			checkAllAngles(lon, lat);
+			checkAllAngles(lon, lat + random.nextDouble() * cell_size);
+			checkAllAngles(Math.nextDown(lon), Math.nextDown(lat));
+			checkAllAngles(Math.nextUp(lon), Math.nextUp(lat));
+		}
+	}
+
+	@Test
+	public void confinementBorder() {
+		var random = new Random(3);
+		for (var i = 0; i < 500; i++) {
+			var lon = ObstacleIndex.min_lon + random.nextDouble() * (ObstacleIndex.max_lon - ObstacleIndex.min_lon);
+			var lat = ObstacleIndex.min_lat + random.nextDouble() * (ObstacleIndex.max_lat - ObstacleIndex.min_lat);
+			// on each side of the area, and just inside and outside of it
+			for (var offset : new double[] { 0, 1e-9, -1e-9, Path.move_length / 2 }) {
+				checkAllAngles(ObstacleIndex.min_lon + offset, lat);
+				checkAllAngles(ObstacleIndex.max_lon - offset, lat);
+				checkAllAngles(lon, ObstacleIndex.min_lat + offset);
+				checkAllAngles(lon, ObstacleIndex.max_lat - offset);
+			}
+		}
+		// and the corners
+		checkAllAngles(ObstacleIndex.min_lon, ObstacleIndex.min_lat);
+		checkAllAngles(ObstacleIndex.max_lon, ObstacleIndex.min_lat);
+		checkAllAngles(ObstacleIndex.min_lon, ObstacleIndex.max_lat);
+		checkAllAngles(ObstacleIndex.max_lon, ObstacleIndex.max_lat);
+	}
+
+	private static void checkAllAngles(double lon, double lat) {
+		for (var angle = 0; angle < 360; angle += 10) {
+			var intersects = obstacles.intersects(lon, lat, lon + Path.delta_lon[angle / 10],
+					lat + Path.delta_lat[angle / 10]);
+			var move = "move from " + lon + "," + lat + " at " + angle;
+			if (mask.allowed(lon, lat, angle)) {
+				assertFalse("allowed " + move + " crosses an obstacle", intersects);
+			}
+			if (mask.forbidden(lon, lat, angle)) {
+				assertTrue("forbidden " + move + " crosses no obstacle", intersects);
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that an archive of readings loads back the readings of every day it was ingested from,
+ * with days missing from the source stored without rows.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class ReadingsArchiveTest {
+
+	// the first two days are before the data of the server
+	private final static LocalDate first = LocalDate.of(2019, 12, 30);
+	private final static LocalDate last = LocalDate.of(2020, 1, 7);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws IOException {
+		var source = new FileDataSource(new File("../WebServer"));
+		var file = new File(folder.getRoot(), "archive.bin");
+		ReadingsArchive.ingest(source, first, last, file);
+		var archive = ReadingsArchive.load(file);
+
+		assertEquals(first, archive.getFirstDay());
+		assertEquals(9, archive.getDayCount());
+		var stats = archive.aggregate(first, last);
+		assertEquals(0, stats.sensors[0]);
+		assertEquals(0, stats.sensors[1]);
+
+		var rows = 0;
+		for (var day = first.plusDays(2); !day.isAfter(last); day = day.plusDays(1)) {
+			var date = new String[] { String.format("%02d", day.getDayOfMonth()),
+					String.format("%02d", day.getMonthValue()), String.format("%04d", day.getYear()) };
+			var readings = new Server(source, date, new DayCache(1)).getDayReadings();
+			assertEquals(readings.size(), stats.sensors[(int) (day.toEpochDay() - first.toEpochDay())]);
+			rows += readings.size();
+			for (var i = 0; i < readings.size(); i++) {
+				var series = archive.series(readings.location(i), day, day);
+				assertEquals(1, series.days.length);
+				assertEquals(day.toEpochDay(), series.days[0]);
+				assertEquals((float) readings.battery(i), series.battery[0], 0);
+				assertEquals((float) readings.reading(i), series.reading[0], 0);
+			}
+		}
+		assertEquals(rows, archive.getRowCount());
+		assertTrue(archive.getSensorCount() <= rows);
+	}
+}
@@ -0,0 +1,70 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that saved no fly zones and their raster of moves load back, so that the same document is
+ * not parsed again and the raster is not built again.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class ZoneCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void roundTrip() throws IOException {
+		var document = Files.readAllBytes(new File("../WebServer/buildings/no-fly-zones.geojson").toPath());
+		var cache = new ZoneCache();
+		var zones = cache.parse(new ByteArrayInputStream(document));
+		var obstacles = cache.index(zones);
+		var file = new File(folder.getRoot(), "zones.bin");
+		cache.save(file);
+
+		var loaded = ZoneCache.load(file);
+		assertEquals(zones, loaded.parse(new ByteArrayInputStream(document)));
+		assertEquals(1, loaded.getHits());
+		assertEquals(0, loaded.getMisses());
+
+		// the loaded raster answers as the one built
+		var mask = obstacles.mask();
+		var loaded_mask = loaded.index(zones).mask();
+		var random = new Random(1);
+		for (var i = 0; i < 5000; i++) {
+			var lon = ObstacleIndex.min_lon + random.nextDouble() * (ObstacleIndex.max_lon - ObstacleIndex.min_lon);
+			var lat = ObstacleIndex.min_lat + random.nextDouble() * (ObstacleIndex.max_lat - ObstacleIndex.min_lat);
+			var angle = 10 * random.nextInt(36);
+			assertEquals(mask.allowed(lon, lat, angle), loaded_mask.allowed(lon, lat, angle));
+			assertEquals(mask.forbidden(lon, lat, angle), loaded_mask.forbidden(lon, lat, angle));
+		}
+	}
+
+	@Test
+	public void parsesOtherDocument() throws IOException {
+		var document = Files.readAllBytes(new File("../WebServer/buildings/no-fly-zones.geojson").toPath());
+		var cache = new ZoneCache();
+		cache.index(cache.parse(new ByteArrayInputStream(document)));
+		var file = new File(folder.getRoot(), "zones.bin");
+		cache.save(file);
+
+		// the same zones written differently
+		var loaded = ZoneCache.load(file);
+		var other = new String(document, "UTF-8").replace("\n", "\r\n").getBytes("UTF-8");
+		assertEquals(cache.parse(new ByteArrayInputStream(document)),
+				loaded.parse(new ByteArrayInputStream(other)));
+		assertEquals(0, loaded.getHits());
+		assertEquals(1, loaded.getMisses());
+	}
+}
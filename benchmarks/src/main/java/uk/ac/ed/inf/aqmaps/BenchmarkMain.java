@@ -0,0 +1,37 @@
+package uk.ac.ed.inf.aqmaps;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like the JMH command line does, adding the GC profiler to report the
+ * allocation rate unless other profilers are asked for.
+ * 
+ * Run from the benchmarks directory, so that the WebServer directory is found:
+ * java -jar target/benchmarks.jar [JMH options, e.g. PlanningBenchmark -p day=01-01-2020]
+ * 
+ * @author Michal Sadowski
+ *
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		var options = new CommandLineOptions(args);
+		if (options.shouldHelp()) {
+			options.showHelp();
+			return;
+		}
+		var builder = new OptionsBuilder().parent(options);
+		if (options.getProfilers().isEmpty()) {
+			builder.addProfiler(GCProfiler.class);
+		}
+		var runner = new Runner(builder.build());
+		if (options.shouldList()) {
+			runner.list();
+		} else {
+			runner.run();
+		}
+	}
+}
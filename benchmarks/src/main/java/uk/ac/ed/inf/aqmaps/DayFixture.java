@@ -0,0 +1,72 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.locationtech.jts.geom.Polygon;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.mapbox.geojson.Point;
+
+/**
+ * Everything needed to plan and fly on one of the days served by the WebServer, loaded once per trial
+ * 
+ * @author Michal Sadowski
+ *
+ */
+@State(Scope.Benchmark)
+public class DayFixture {
+
+	// the WebServer directory, relative to the benchmarks module unless -Daqmaps.webserver is given
+	static final File root = new File(System.getProperty("aqmaps.webserver", "../WebServer"));
+
+	// days of different shapes: the sample days of the heatmap and two others
+	@Param({ "01-01-2020", "05-07-2021", "30-11-2021" })
+	public String day;
+
+	String[] date;
+	Point start_loc = Point.fromLngLat(-3.1878, 55.9444);
+	Server server;
+	byte[] readings_json;
+	byte[] no_fly_zones_json;
+	ArrayList<SensorLocation> sensors;
+	HashMap<String, Point> sensors_hash;
+	ArrayList<Polygon> no_fly_zones;
+	ObstacleIndex obstacles;
+	ArrayList<PathStep> flightpath;
+
+	@Setup(Level.Trial)
+	public void load() {
+		date = day.split("-");
+		server = new Server(new FileDataSource(root), date, new DayCache(1));
+		readings_json = read("/maps/" + date[2] + "/" + date[1] + "/" + date[0] + "/air-quality-data.json");
+		no_fly_zones_json = read("/buildings/no-fly-zones.geojson");
+		sensors = server.getSensorsLocations();
+		sensors_hash = server.getHashMap();
+		no_fly_zones = server.getJTSNoFlyZones();
+		obstacles = new ObstacleIndex(no_fly_zones);
+		flightpath = new Path(sensors, start_loc, obstacles).generatePath();
+	}
+
+	/**
+	 * Reads a file of the WebServer directory
+	 * 
+	 * @param url_params the path of the file as it would be requested from the server
+	 * @return contents of the file
+	 */
+	static byte[] read(String url_params) {
+		try {
+			return Files.readAllBytes(new File(root, url_params).toPath());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
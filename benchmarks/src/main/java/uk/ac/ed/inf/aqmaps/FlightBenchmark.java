@@ -0,0 +1,77 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures flying a planned path, taking its readings from the WebServer files, and exporting
+ * the flight log and the map
+ * 
+ * @author Michal Sadowski
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FlightBenchmark {
+
+	private Drone flown;
+	private File log_file;
+	private File map_file;
+	private PrintStream stdout;
+
+	@Setup
+	public void prepare(DayFixture fixture) throws IOException {
+		flown = new Drone(fixture.start_loc, fixture.sensors_hash, fixture.server);
+		flown.fly(fixture.flightpath);
+		log_file = File.createTempFile("flightpath", ".txt");
+		map_file = File.createTempFile("readings", ".geojson");
+		// the exports report every file saved
+		stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	@TearDown
+	public void clean() {
+		System.setOut(stdout);
+		log_file.delete();
+		map_file.delete();
+	}
+
+	@Benchmark
+	public ArrayList<Reading> fly(DayFixture fixture) {
+		var drone = new Drone(fixture.start_loc, fixture.sensors_hash, fixture.server);
+		drone.fly(fixture.flightpath);
+		return drone.getReadings();
+	}
+
+	@Benchmark
+	public void exportLog() {
+		flown.export(log_file.getPath());
+	}
+
+	@Benchmark
+	public void exportMap(DayFixture fixture) {
+		var map = new AQMap(flown.getReadings(), flown.getTrace(), fixture.sensors_hash);
+		map.export(map_file.getPath());
+	}
+}
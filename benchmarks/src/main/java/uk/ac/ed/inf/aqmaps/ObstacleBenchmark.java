@@ -0,0 +1,80 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the move checks Path.forbidden() delegates to, on moves spread uniformly over the
+ * confinement area. One operation is one move checked.
+ * 
+ * @author Michal Sadowski
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ObstacleBenchmark {
+
+	private final static int move_count = 4096;
+
+	private double[] lon = new double[move_count];
+	private double[] lat = new double[move_count];
+	private int[] angle = new int[move_count];
+
+	@Setup
+	public void moves() {
+		// the same moves in every trial
+		var random = new Random(42);
+		for (var i = 0; i < move_count; i++) {
+			lon[i] = ObstacleIndex.min_lon + random.nextDouble() * (ObstacleIndex.max_lon - ObstacleIndex.min_lon);
+			lat[i] = ObstacleIndex.min_lat + random.nextDouble() * (ObstacleIndex.max_lat - ObstacleIndex.min_lat);
+			angle[i] = 10 * random.nextInt(36);
+		}
+	}
+
+	/**
+	 * The check used by the planner, answered by the move mask where it can be
+	 */
+	@Benchmark
+	@OperationsPerInvocation(move_count)
+	public int forbidden(DayFixture fixture) {
+		var count = 0;
+		for (var i = 0; i < move_count; i++) {
+			if (fixture.obstacles.forbidden(lon[i], lat[i], angle[i])) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * The exact check against the geometry
+	 */
+	@Benchmark
+	@OperationsPerInvocation(move_count)
+	public int intersects(DayFixture fixture) {
+		var count = 0;
+		for (var i = 0; i < move_count; i++) {
+			var a = angle[i] / 10;
+			if (fixture.obstacles.intersects(lon[i], lat[i], lon[i] + Path.delta_lon[a], lat[i] + Path.delta_lat[a])) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,44 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures planning a whole path, and building the obstacle index it plans around
+ * 
+ * @author Michal Sadowski
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PlanningBenchmark {
+
+	/**
+	 * A new Path each time, so that the leg cost matrix is built as in a real run
+	 */
+	@Benchmark
+	public ArrayList<PathStep> generatePath(DayFixture fixture) {
+		return new Path(fixture.sensors, fixture.start_loc, fixture.obstacles).generatePath();
+	}
+
+	@Benchmark
+	public ArrayList<PathStep> generateQuickPath(DayFixture fixture) {
+		return new Path(fixture.sensors, fixture.start_loc, fixture.obstacles).generateQuickPath();
+	}
+
+	@Benchmark
+	public ObstacleIndex buildObstacleIndex(DayFixture fixture) {
+		return new ObstacleIndex(fixture.no_fly_zones);
+	}
+}
@@ -0,0 +1,85 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.locationtech.jts.geom.Polygon;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mapbox.geojson.Point;
+
+/**
+ * Measures parsing the documents served by the WebServer, alone and together with reading
+ * them from files or downloading them from a stand-in server as the Server methods do
+ * 
+ * @author Michal Sadowski
+ *
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ServerBenchmark {
+
+	@Benchmark
+	public DayReadings parseReadings(DayFixture fixture) throws IOException {
+		return Server.parseReadings(new ByteArrayInputStream(fixture.readings_json));
+	}
+
+	@Benchmark
+	public ArrayList<Polygon> parseNoFlyZones(DayFixture fixture) throws IOException {
+		return Server.parseNoFlyZones(new ByteArrayInputStream(fixture.no_fly_zones_json));
+	}
+
+	/**
+	 * Locations of all sensors of the day on a new server, which reads the document of the day
+	 * and one details.json document per sensor
+	 */
+	@Benchmark
+	public ArrayList<SensorLocation> getSensorsLocations(DayFixture fixture) {
+		return new Server(new FileDataSource(DayFixture.root), fixture.date, new DayCache(1)).getSensorsLocations();
+	}
+
+	/**
+	 * Locations of all sensors of the day on a new server, which downloads the document of the day
+	 * and one details.json document per sensor from a stand-in server over HTTP
+	 */
+	@Benchmark
+	public ArrayList<SensorLocation> getSensorsLocationsHttp(DayFixture fixture, StandInFixture stand_in) {
+		return new Server(new HttpDataSource(stand_in.server.getPort()), fixture.date, new DayCache(1))
+				.getSensorsLocations();
+	}
+
+	/**
+	 * One reading, from the document of the day already in the day cache
+	 */
+	@Benchmark
+	public Reading getReading(DayFixture fixture) {
+		return fixture.server.getReading(fixture.sensors.get(0).location);
+	}
+
+	/**
+	 * One reading, which reads and indexes the whole document of the day
+	 */
+	@Benchmark
+	public Reading getReadingUncached(DayFixture fixture) {
+		fixture.server.invalidate();
+		return fixture.server.getReading(fixture.sensors.get(0).location);
+	}
+
+	@Benchmark
+	public Point getW3W(DayFixture fixture) throws IOException {
+		var words = fixture.sensors.get(0).location.split("\\.");
+		var details = DayFixture.read("/words/" + words[0] + "/" + words[1] + "/" + words[2] + "/details.json");
+		return Server.parseW3W(new ByteArrayInputStream(details));
+	}
+}
@@ -0,0 +1,45 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A StandInServer serving the WebServer directory at a free port, with the latency and jitter
+ * of a network, running for a trial
+ * 
+ * @author Michal Sadowski
+ *
+ */
+@State(Scope.Benchmark)
+public class StandInFixture {
+
+	// delay of each response in milliseconds
+	@Param({ "0", "20" })
+	public long latency;
+
+	StandInServer server;
+
+	@Setup(Level.Trial)
+	public void start() {
+		try {
+			server = new StandInServer(DayFixture.root, 0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		server.setLatency(latency);
+		server.setJitter(latency / 4);
+		server.start();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		server.stop();
+	}
+}
@@ -2,18 +2,17 @@ package uk.ac.ed.inf.heatmap;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
-import com.mapbox.geojson.Feature;
-import com.mapbox.geojson.FeatureCollection;
 import com.mapbox.geojson.Point;
 import com.mapbox.geojson.Polygon;
 
+import uk.ac.ed.inf.aqmaps.GeoJsonWriter;
+
 /**
  * This class is responsible for main operations on GeoJSON. 
  *
@@ -55,26 +54,19 @@ public class Heatmap {
 	
 	// METHODS
 	/**
-	 * Combines each rectangle with a corresponding prediction by calling createFeature.
-	 * Then saves the resulting FeatureCollection into a GeoJSON file.
+	 * Combines each rectangle with a corresponding prediction by calling writeFeature.
+	 * The features are written into the GeoJSON file one at a time.
 	 *  
 	 * @param outfile name of the file to save
 	 */
 	public void createHeatmap(String outfile) {
-		// Create the feature collection
-		var features = new ArrayList<Feature>();
-		for (var i = 0; i < 10; i++) {
-			for (var j = 0; j < 10; j++) {
-				features.add(createFeature(grid[i][j], predictions[i][j]));
+		// Save to file feature by feature
+		try (var writer = GeoJsonWriter.open(new File(outfile))) {
+			for (var i = 0; i < 10; i++) {
+				for (var j = 0; j < 10; j++) {
+					writeFeature(writer, grid[i][j], predictions[i][j]);
+				}
 			}
-		}
-		var heatmap = FeatureCollection.fromFeatures(features);
-
-		// Save to file
-		try {
-			FileWriter myWriter = new FileWriter(outfile);
-			myWriter.write(heatmap.toJson());
-			myWriter.close();
 		} catch (IOException e) {
 			System.out.println("An error occurred.");
 			e.printStackTrace();
@@ -82,18 +74,29 @@ public class Heatmap {
 	}
 	
 	/**
-	 * Create a GeoJSON Feature with the rectangle Polygon and properties: fill-opacity, rgb-string, and fill
+	 * Writes a GeoJSON Feature with the rectangle Polygon and properties: fill-opacity, rgb-string, and fill
 	 * 
+	 * @param writer the writer of the heatmap
 	 * @param rectangle a GeoJSON Polygon rectangle to consider
 	 * @param prediction integer value 
-	 * @return a GeoJSON feature
+	 * @throws IOException if the feature cannot be written
 	 */
-	private Feature createFeature(Polygon rectangle, int prediction) {
-		var rectangleFeature = Feature.fromGeometry(rectangle);
-		rectangleFeature.addNumberProperty("fill-opacity", 0.75);
-		rectangleFeature.addStringProperty("rgb-string", ColorSymbol.readingToRgbColor(prediction));
-		rectangleFeature.addStringProperty("fill", ColorSymbol.readingToRgbColor(prediction));
-		return rectangleFeature;
+	private void writeFeature(GeoJsonWriter writer, Polygon rectangle, int prediction) throws IOException {
+		// Take the coordinates of the outer ring
+		var ring = rectangle.coordinates().get(0);
+		var lon = new double[ring.size()];
+		var lat = new double[ring.size()];
+		for (var k = 0; k < ring.size(); k++) {
+			lon[k] = ring.get(k).longitude();
+			lat[k] = ring.get(k).latitude();
+		}
+
+		writer.beginFeature();
+		writer.polygon(lon, lat, ring.size());
+		writer.property("fill-opacity", 0.75);
+		writer.property("rgb-string", ColorSymbol.readingToRgbColor(prediction));
+		writer.property("fill", ColorSymbol.readingToRgbColor(prediction));
+		writer.endFeature();
 	}
 
 
@@ -0,0 +1,59 @@
+package uk.ac.ed.inf.heatmap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+
+/**
+ * Checks that the heatmap streamed by Heatmap is the document mapbox serialises for the same features.
+ *
+ * @author Michal Sadowski
+ *
+ */
+public class HeatmapTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void heatmapMatchesMapbox() throws IOException {
+		// predictions covering every colour
+		var random = new Random(1);
+		var rows = new StringBuilder();
+		for (var i = 0; i < 10; i++) {
+			for (var j = 0; j < 10; j++) {
+				rows.append(j == 0 ? "" : ", ").append(random.nextInt(256));
+			}
+			rows.append("\n");
+		}
+		var predictions = folder.newFile("predictions.txt");
+		Files.write(predictions.toPath(), rows.toString().getBytes("UTF-8"));
+
+		var heatmap = new Heatmap(predictions.getPath());
+		var out = folder.newFile("heatmap.geojson");
+		heatmap.createHeatmap(out.getPath());
+
+		var features = new ArrayList<Feature>();
+		for (var i = 0; i < 10; i++) {
+			for (var j = 0; j < 10; j++) {
+				var feature = Feature.fromGeometry(heatmap.grid[i][j]);
+				feature.addNumberProperty("fill-opacity", 0.75);
+				feature.addStringProperty("rgb-string", ColorSymbol.readingToRgbColor(heatmap.predictions[i][j]));
+				feature.addStringProperty("fill", ColorSymbol.readingToRgbColor(heatmap.predictions[i][j]));
+				features.add(feature);
+			}
+		}
+		assertEquals(FeatureCollection.fromFeatures(features).toJson(),
+				new String(Files.readAllBytes(out.toPath()), "UTF-8"));
+	}
+}